@@ -0,0 +1,68 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+import com.anthropic.claudecode.messages.ResultMessage;
+
+import java.time.Duration;
+
+/**
+ * Outcome of one prompt run by a {@link ClaudeBatchRunner}.
+ */
+public final class BatchResult {
+    private final long index;
+    private final String prompt;
+    private final ResultMessage result;
+    private final ClaudeSDKException error;
+    private final int attempts;
+    private final Duration latency;
+
+    BatchResult(long index, String prompt, ResultMessage result, ClaudeSDKException error, int attempts,
+                Duration latency) {
+        this.index = index;
+        this.prompt = prompt;
+        this.result = result;
+        this.error = error;
+        this.attempts = attempts;
+        this.latency = latency;
+    }
+
+    /**
+     * Position of the prompt in the input, starting at zero.
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns the CLI's final result, or {@code null} if every attempt failed.
+     */
+    public ResultMessage getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the failure of the last attempt, or {@code null} on success.
+     */
+    public ClaudeSDKException getError() {
+        return error;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Time from the first attempt's start to the final outcome, including retries.
+     */
+    public Duration getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,124 @@
+package com.anthropic.claudecode;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Configuration for a {@link ClaudeBatchRunner}.
+ */
+public class BatchRunnerOptions {
+    private int minConcurrency = 1;
+    private int maxConcurrency = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+    private boolean adaptive = true;
+    private Duration itemTimeout = Duration.ofMinutes(10);
+    private int maxRetries = 2;
+    private Duration retryBackoff = Duration.ofSeconds(1);
+    private boolean ordered = true;
+    private long minFreeMemoryBytes = 512L * 1024 * 1024;
+
+    public int getMinConcurrency() {
+        return minConcurrency;
+    }
+
+    public BatchRunnerOptions setMinConcurrency(int minConcurrency) {
+        if (minConcurrency < 1) {
+            throw new IllegalArgumentException("minConcurrency must be at least 1");
+        }
+        this.minConcurrency = minConcurrency;
+        return this;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Upper bound on CLI processes running at once.
+     */
+    public BatchRunnerOptions setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Whether concurrency moves between the minimum and maximum with CPU load and free memory. When disabled,
+     * the maximum is used throughout.
+     */
+    public BatchRunnerOptions setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    public Duration getItemTimeout() {
+        return itemTimeout;
+    }
+
+    /**
+     * Time one attempt may take before its CLI process is stopped.
+     */
+    public BatchRunnerOptions setItemTimeout(Duration itemTimeout) {
+        this.itemTimeout = Objects.requireNonNull(itemTimeout, "itemTimeout");
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Number of times a prompt is retried after its CLI process fails with a non-zero exit code.
+     */
+    public BatchRunnerOptions setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public Duration getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    /**
+     * Delay before the first retry; each further retry waits twice as long.
+     */
+    public BatchRunnerOptions setRetryBackoff(Duration retryBackoff) {
+        this.retryBackoff = Objects.requireNonNull(retryBackoff, "retryBackoff");
+        return this;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Whether results are returned in input order rather than as they complete.
+     */
+    public BatchRunnerOptions setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    public long getMinFreeMemoryBytes() {
+        return minFreeMemoryBytes;
+    }
+
+    /**
+     * Free physical memory below which adaptive concurrency stops growing and starts shrinking.
+     */
+    public BatchRunnerOptions setMinFreeMemoryBytes(long minFreeMemoryBytes) {
+        if (minFreeMemoryBytes < 0) {
+            throw new IllegalArgumentException("minFreeMemoryBytes must not be negative");
+        }
+        this.minFreeMemoryBytes = minFreeMemoryBytes;
+        return this;
+    }
+}
@@ -0,0 +1,76 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.messages.Message;
+import com.anthropic.claudecode.messages.ResultMessage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Pushes each message straight to a callback on the delivering thread, and doubles as the future that reports
+ * how the stream ended. Cancelling the future unsubscribes.
+ */
+final class CallbackSubscriber extends CompletableFuture<ResultMessage> implements Flow.Subscriber<Message> {
+    private final Consumer<? super Message> handler;
+    private final int replenish;
+    private volatile Flow.Subscription subscription;
+    private ResultMessage lastResult;
+    private int consumed;
+
+    CallbackSubscriber(Consumer<? super Message> handler, int prefetch) {
+        this.handler = handler;
+        this.replenish = Math.max(1, prefetch / 2);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (isDone()) {
+            subscription.cancel();
+        } else {
+            subscription.request(replenish * 2L);
+        }
+    }
+
+    @Override
+    public void onNext(Message item) {
+        if (isDone()) {
+            return;
+        }
+        if (item instanceof ResultMessage result) {
+            lastResult = result;
+        }
+        try {
+            handler.accept(item);
+        } catch (RuntimeException e) {
+            subscription.cancel();
+            completeExceptionally(e);
+            return;
+        }
+        if (++consumed >= replenish) {
+            consumed = 0;
+            subscription.request(replenish);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        complete(lastResult);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        Flow.Subscription current = subscription;
+        if (cancelled && current != null) {
+            current.cancel();
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,674 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.exceptions.CLIConnectionError;
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+import com.anthropic.claudecode.exceptions.ProcessError;
+import com.anthropic.claudecode.internal.ThreadSupport;
+import com.anthropic.claudecode.messages.ResultMessage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs large numbers of independent prompts, each in its own one-shot CLI process.
+ *
+ * <p>Prompts run with bounded concurrency. In adaptive mode the bound starts at the number of processors and
+ * moves between {@link BatchRunnerOptions#getMinConcurrency()} and {@link BatchRunnerOptions#getMaxConcurrency()}:
+ * it grows while the runner is saturated and the machine has spare CPU and memory, and shrinks under pressure.
+ * Each attempt is stopped after the item timeout, and attempts whose process exits with an error are retried
+ * with exponential backoff. Results are streamed as they become available, in input order or completion order,
+ * and prompts are only read ahead of the consumer by a bounded window.
+ *
+ * <p>Every prompt uses the same {@link ClaudeCodeOptions} and goes through {@link ClaudeCode#queryResult}, so
+ * runs need no control protocol threads. One runner may serve several runs; {@link #getStats()} covers them all.
+ */
+public class ClaudeBatchRunner implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ClaudeBatchRunner.class.getName());
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final double HIGH_CPU_LOAD = 0.9;
+    private static final double LOW_CPU_LOAD = 0.75;
+    private static final int LATENCY_SAMPLES = 4096;
+
+    private final ClaudeCodeOptions options;
+    private final BatchRunnerOptions batchOptions;
+    private final ExecutorService workers;
+    private final ThreadFactory abortThreads;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final Set<Run> runs = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Guarded by lock.
+    private final Object lock = new Object();
+    private int limit;
+    private int inFlight;
+    private long lastSampleNanos;
+    private long submitted;
+    private long succeeded;
+    private long failed;
+    private long retries;
+    private long timeouts;
+    private double totalCostUsd;
+    private long firstStartNanos;
+    private long lastFinishNanos;
+    // A uniform random sample of completed prompts' latencies, for percentiles.
+    private final long[] latencySamples = new long[LATENCY_SAMPLES];
+    private long latencyCount;
+    private long latencyTotal;
+    private long latencyMax;
+
+    public ClaudeBatchRunner(ClaudeCodeOptions options) {
+        this(options, new BatchRunnerOptions());
+    }
+
+    public ClaudeBatchRunner(ClaudeCodeOptions options, BatchRunnerOptions batchOptions) {
+        this.options = (options != null ? options : new ClaudeCodeOptions()).copy().freeze();
+        this.batchOptions = batchOptions != null ? batchOptions : new BatchRunnerOptions();
+        if (this.batchOptions.getMinConcurrency() > this.batchOptions.getMaxConcurrency()) {
+            throw new IllegalArgumentException("minConcurrency must not exceed maxConcurrency");
+        }
+        this.limit = this.batchOptions.isAdaptive()
+                ? clamp(Runtime.getRuntime().availableProcessors())
+                : this.batchOptions.getMaxConcurrency();
+        this.workers = new ThreadPoolExecutor(
+                0,
+                Integer.MAX_VALUE,
+                60,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                ThreadSupport.threadFactory("claude-batch", this.options.getThreadMode()));
+        this.abortThreads = ThreadSupport.threadFactory("claude-batch-abort", this.options.getThreadMode());
+    }
+
+    /**
+     * Starts running {@code prompts} and returns their results as they become available. The prompts are read
+     * on a background thread as capacity frees up. Close the returned stream to stop early; running attempts
+     * are then stopped and unread prompts are skipped.
+     */
+    public Stream<BatchResult> run(Stream<String> prompts) {
+        if (closed.get()) {
+            throw new IllegalStateException("Batch runner is closed");
+        }
+        Run run = new Run(prompts.iterator());
+        runs.add(run);
+        try {
+            workers.execute(() -> feed(run, prompts));
+        } catch (RejectedExecutionException e) {
+            runs.remove(run);
+            throw new IllegalStateException("Batch runner is closed", e);
+        }
+        Spliterator<BatchResult> spliterator =
+                Spliterators.spliteratorUnknownSize(run, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(run::cancel);
+    }
+
+    /**
+     * Returns the current bound on concurrently running prompts.
+     */
+    public int getConcurrencyLimit() {
+        synchronized (lock) {
+            return limit;
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (lock) {
+            long now = System.nanoTime();
+            long end = inFlight > 0 || lastFinishNanos == 0 ? now : lastFinishNanos;
+            Duration elapsed = firstStartNanos == 0 ? Duration.ZERO : Duration.ofNanos(end - firstStartNanos);
+            long[] sorted = Arrays.copyOf(latencySamples, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+            Arrays.sort(sorted);
+            Duration mean = latencyCount == 0 ? Duration.ZERO : Duration.ofNanos(latencyTotal / latencyCount);
+            return new Stats(submitted, succeeded, failed, retries, timeouts, inFlight, limit, totalCostUsd,
+                    elapsed, mean, Duration.ofNanos(latencyMax), sorted);
+        }
+    }
+
+    /**
+     * Stops all runs and their CLI processes.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (Run run : runs) {
+            run.cancel();
+        }
+        workers.shutdown();
+    }
+
+    private void feed(Run run, Stream<String> prompts) {
+        long index = 0;
+        try (prompts) {
+            while (!run.cancelled && run.source.hasNext()) {
+                String prompt = run.source.next();
+                if (!acquire(run)) {
+                    break;
+                }
+                long itemIndex = index++;
+                run.started();
+                try {
+                    workers.execute(() -> process(run, itemIndex, prompt));
+                } catch (RejectedExecutionException e) {
+                    release();
+                    run.abandoned();
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to read batch prompts", e);
+        } finally {
+            run.inputDone();
+        }
+    }
+
+    /**
+     * Waits until a prompt of {@code run} may start. Returns {@code false} if the run was cancelled meanwhile.
+     */
+    private boolean acquire(Run run) {
+        synchronized (lock) {
+            while (!run.cancelled && (inFlight >= limit || run.backlog() >= batchOptions.getMaxConcurrency() * 2)) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (run.cancelled) {
+                return false;
+            }
+            inFlight++;
+            submitted++;
+            if (firstStartNanos == 0) {
+                firstStartNanos = System.nanoTime();
+            }
+            adjustLimit();
+            return true;
+        }
+    }
+
+    private void release() {
+        synchronized (lock) {
+            inFlight--;
+            lock.notifyAll();
+        }
+    }
+
+    private void complete(Run run, BatchResult result) {
+        synchronized (lock) {
+            inFlight--;
+            lastFinishNanos = System.nanoTime();
+            if (result.isSuccess()) {
+                succeeded++;
+                Double cost = result.getResult().getTotalCostUsd();
+                if (cost != null) {
+                    totalCostUsd += cost;
+                }
+            } else {
+                failed++;
+            }
+            recordLatency(result.getLatency().toNanos());
+            adjustLimit();
+            run.completed(result);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Runs one prompt and completes it exactly once, also when an attempt throws unexpectedly, so that the
+     * slot is freed and the consumer is not left waiting for the result.
+     */
+    private void process(Run run, long index, String prompt) {
+        long start = System.nanoTime();
+        BatchResult result;
+        try {
+            result = execute(run, index, prompt);
+        } catch (RuntimeException | Error e) {
+            ClaudeSDKException error = new ClaudeSDKException("Batch prompt failed unexpectedly", e);
+            complete(run, new BatchResult(index, prompt, null, error, 1, Duration.ofNanos(System.nanoTime() - start)));
+            if (e instanceof Error fatal) {
+                throw fatal;
+            }
+            LOGGER.log(Level.WARNING, "Batch prompt failed unexpectedly", e);
+            return;
+        }
+        complete(run, result);
+    }
+
+    /**
+     * Adds a latency to the statistics, keeping a fixed-size reservoir sample for percentiles. Called under
+     * the lock.
+     */
+    private void recordLatency(long nanos) {
+        latencyCount++;
+        latencyTotal += nanos;
+        latencyMax = Math.max(latencyMax, nanos);
+        if (latencyCount <= LATENCY_SAMPLES) {
+            latencySamples[(int) (latencyCount - 1)] = nanos;
+        } else {
+            long slot = ThreadLocalRandom.current().nextLong(latencyCount);
+            if (slot < LATENCY_SAMPLES) {
+                latencySamples[(int) slot] = nanos;
+            }
+        }
+    }
+
+    private BatchResult execute(Run run, long index, String prompt) {
+        long start = System.nanoTime();
+        int attempts = 0;
+        ClaudeSDKException error;
+        while (true) {
+            attempts++;
+            try {
+                ResultMessage result = attempt(run, prompt);
+                Duration latency = Duration.ofNanos(System.nanoTime() - start);
+                return new BatchResult(index, prompt, result, null, attempts, latency);
+            } catch (ClaudeSDKException e) {
+                error = e;
+            }
+            if (!(error instanceof ProcessError) || attempts > batchOptions.getMaxRetries() || run.cancelled) {
+                break;
+            }
+            synchronized (lock) {
+                retries++;
+            }
+            if (!awaitBackoff(run, backoffNanos(attempts))) {
+                break;
+            }
+        }
+        return new BatchResult(index, prompt, null, error, attempts, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Returns the delay before the retry following {@code attempts} attempts, saturating instead of overflowing.
+     */
+    private long backoffNanos(int attempts) {
+        int shift = Math.min(attempts - 1, 20);
+        long base;
+        try {
+            base = batchOptions.getRetryBackoff().toNanos();
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+        return base > Long.MAX_VALUE >> shift ? Long.MAX_VALUE : base << shift;
+    }
+
+    /**
+     * Waits out a retry backoff. Returns {@code false} if the run was cancelled or the thread interrupted
+     * meanwhile.
+     */
+    private boolean awaitBackoff(Run run, long nanos) {
+        long start = System.nanoTime();
+        synchronized (lock) {
+            long remaining = nanos;
+            while (!run.cancelled && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remaining = nanos - (System.nanoTime() - start);
+            }
+            return !run.cancelled;
+        }
+    }
+
+    private ResultMessage attempt(Run run, String prompt) throws ClaudeSDKException {
+        if (run.cancelled) {
+            throw new CLIConnectionError("Batch run was cancelled");
+        }
+        ClaudeCode.OneShot oneShot = ClaudeCode.OneShot.start(prompt, options, true);
+        AtomicBoolean timedOut = new AtomicBoolean();
+        run.active.add(oneShot);
+        // Stopping a process waits for it to exit, so the shared timer thread only hands the abort off.
+        ScheduledFuture<?> timeout = TIMER.schedule(() -> {
+            timedOut.set(true);
+            abortThreads.newThread(oneShot::abort).start();
+        }, batchOptions.getItemTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        try {
+            // A run cancelled while the process was starting would otherwise miss this attempt.
+            if (run.cancelled) {
+                oneShot.abort();
+            }
+            return ClaudeCode.resultOf(oneShot);
+        } catch (ClaudeSDKException e) {
+            if (timedOut.get()) {
+                synchronized (lock) {
+                    timeouts++;
+                }
+                throw new CLIConnectionError(
+                        "Prompt timed out after " + batchOptions.getItemTimeout(), new TimeoutException());
+            }
+            throw e;
+        } finally {
+            timeout.cancel(false);
+            run.active.remove(oneShot);
+        }
+    }
+
+    /**
+     * Grows the limit while every slot is busy and the machine has headroom, and shrinks it under CPU or
+     * memory pressure. Samples are taken at most every half second.
+     */
+    private void adjustLimit() {
+        if (!batchOptions.isAdaptive()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastSampleNanos < SAMPLE_INTERVAL_NANOS) {
+            return;
+        }
+        lastSampleNanos = now;
+        double cpuLoad = cpuLoad();
+        long freeMemory = freeMemory();
+        boolean memoryLow = freeMemory >= 0 && freeMemory < batchOptions.getMinFreeMemoryBytes();
+        if (memoryLow || cpuLoad > HIGH_CPU_LOAD) {
+            limit = clamp(limit - Math.max(1, limit / 4));
+        } else if (inFlight >= limit && cpuLoad >= 0 && cpuLoad < LOW_CPU_LOAD
+                && (freeMemory < 0 || freeMemory > batchOptions.getMinFreeMemoryBytes() * 2)) {
+            limit = clamp(limit + 1);
+        }
+    }
+
+    private int clamp(int value) {
+        return Math.max(batchOptions.getMinConcurrency(), Math.min(batchOptions.getMaxConcurrency(), value));
+    }
+
+    /**
+     * Returns the recent system CPU load between 0 and 1, or a negative value when it is unavailable.
+     */
+    private double cpuLoad() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+            return sunOs.getCpuLoad();
+        }
+        double loadAverage = os.getSystemLoadAverage();
+        return loadAverage < 0 ? -1 : loadAverage / os.getAvailableProcessors();
+    }
+
+    /**
+     * Returns the free physical memory in bytes, or a negative value when it is unavailable.
+     */
+    private long freeMemory() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+            return sunOs.getFreeMemorySize();
+        }
+        return -1;
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "claude-batch-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * One call to {@link #run(Stream)}: its input, its in-flight processes and its results waiting for the
+     * consumer. Mutable state is guarded by the runner's lock.
+     */
+    private final class Run implements Iterator<BatchResult> {
+        private final Iterator<String> source;
+        private final Set<ClaudeCode.OneShot> active = ConcurrentHashMap.newKeySet();
+        private final Map<Long, BatchResult> completedByIndex = new HashMap<>();
+        private final ArrayDeque<BatchResult> completedInOrder = new ArrayDeque<>();
+        private volatile boolean cancelled;
+        private long started;
+        private long emitted;
+        private boolean inputDone;
+
+        Run(Iterator<String> source) {
+            this.source = source;
+        }
+
+        void started() {
+            synchronized (lock) {
+                started++;
+            }
+        }
+
+        void abandoned() {
+            synchronized (lock) {
+                started--;
+            }
+        }
+
+        void inputDone() {
+            synchronized (lock) {
+                inputDone = true;
+                lock.notifyAll();
+            }
+        }
+
+        /**
+         * Returns the number of prompts started but not yet returned to the consumer.
+         */
+        long backlog() {
+            return started - emitted;
+        }
+
+        void completed(BatchResult result) {
+            if (batchOptions.isOrdered()) {
+                completedByIndex.put(result.getIndex(), result);
+            } else {
+                completedInOrder.addLast(result);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            synchronized (lock) {
+                try {
+                    while (!cancelled && !hasReady() && !(inputDone && emitted == started)) {
+                        lock.wait();
+                    }
+                    if (!cancelled && hasReady()) {
+                        return true;
+                    }
+                    runs.remove(this);
+                    return false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // Aborting waits for every active attempt's process to exit, so it must not hold up the runner lock.
+            cancel();
+            return false;
+        }
+
+        @Override
+        public BatchResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            synchronized (lock) {
+                if (cancelled || !hasReady()) {
+                    throw new NoSuchElementException();
+                }
+                BatchResult result = batchOptions.isOrdered()
+                        ? completedByIndex.remove(emitted)
+                        : completedInOrder.pollFirst();
+                emitted++;
+                lock.notifyAll();
+                return result;
+            }
+        }
+
+        private boolean hasReady() {
+            return batchOptions.isOrdered() ? completedByIndex.containsKey(emitted) : !completedInOrder.isEmpty();
+        }
+
+        void cancel() {
+            synchronized (lock) {
+                cancelled = true;
+                completedByIndex.clear();
+                completedInOrder.clear();
+                runs.remove(this);
+                lock.notifyAll();
+            }
+            for (ClaudeCode.OneShot oneShot : active) {
+                oneShot.abort();
+            }
+        }
+    }
+
+    /**
+     * Snapshot of a runner's progress.
+     */
+    public static final class Stats {
+        private final long submitted;
+        private final long succeeded;
+        private final long failed;
+        private final long retries;
+        private final long timeouts;
+        private final int inFlight;
+        private final int concurrencyLimit;
+        private final double totalCostUsd;
+        private final Duration elapsed;
+        private final Duration meanLatency;
+        private final Duration maxLatency;
+        private final long[] sortedLatencies;
+
+        Stats(long submitted, long succeeded, long failed, long retries, long timeouts, int inFlight,
+              int concurrencyLimit, double totalCostUsd, Duration elapsed, Duration meanLatency,
+              Duration maxLatency, long[] sortedLatencies) {
+            this.submitted = submitted;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.retries = retries;
+            this.timeouts = timeouts;
+            this.inFlight = inFlight;
+            this.concurrencyLimit = concurrencyLimit;
+            this.totalCostUsd = totalCostUsd;
+            this.elapsed = elapsed;
+            this.meanLatency = meanLatency;
+            this.maxLatency = maxLatency;
+            this.sortedLatencies = sortedLatencies;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getSucceeded() {
+            return succeeded;
+        }
+
+        /**
+         * Prompts whose every attempt failed.
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        /**
+         * Attempts stopped by the item timeout.
+         */
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public int getConcurrencyLimit() {
+            return concurrencyLimit;
+        }
+
+        /**
+         * Sum of {@link ResultMessage#getTotalCostUsd()} over successful prompts.
+         */
+        public double getTotalCostUsd() {
+            return totalCostUsd;
+        }
+
+        /**
+         * Time from the first prompt's start to the last completion, or to now while prompts are running.
+         */
+        public Duration getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * Completed prompts per second over {@link #getElapsed()}.
+         */
+        public double getThroughputPerSecond() {
+            long nanos = elapsed.toNanos();
+            return nanos == 0 ? 0 : (succeeded + failed) * 1e9 / nanos;
+        }
+
+        public Duration getMeanLatency() {
+            return meanLatency;
+        }
+
+        /**
+         * Returns the latency below which {@code percentile} percent of completed prompts fall. Beyond the
+         * first few thousand prompts this is estimated from a uniform random sample of them.
+         */
+        public Duration getPercentileLatency(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (sortedLatencies.length == 0) {
+                return Duration.ZERO;
+            }
+            int rank = (int) Math.ceil(sortedLatencies.length * percentile / 100);
+            return Duration.ofNanos(sortedLatencies[Math.max(0, rank - 1)]);
+        }
+
+        public Duration getMaxLatency() {
+            return maxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{submitted=" + submitted
+                    + ", succeeded=" + succeeded
+                    + ", failed=" + failed
+                    + ", retries=" + retries
+                    + ", timeouts=" + timeouts
+                    + ", inFlight=" + inFlight
+                    + ", concurrencyLimit=" + concurrencyLimit
+                    + ", totalCostUsd=" + totalCostUsd
+                    + ", throughputPerSecond=" + getThroughputPerSecond()
+                    + ", p50=" + getPercentileLatency(50)
+                    + ", p99=" + getPercentileLatency(99) + "}";
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.exceptions.CLIConnectionError;
+import com.anthropic.claudecode.exceptions.CLIJSONDecodeError;
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+import com.anthropic.claudecode.messages.Message;
+import com.anthropic.claudecode.messages.MessageParser;
+import com.anthropic.claudecode.messages.ResultMessage;
+import com.anthropic.claudecode.transport.JsonFrame;
+import com.anthropic.claudecode.transport.SubprocessCLITransport;
+import com.anthropic.claudecode.transport.Transport;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * One-shot queries, the Java counterpart of the Python SDK's top-level {@code query()} function.
+ *
+ * <p>Each call runs the CLI once in {@code --print} mode and reads its output on the calling thread as the
+ * caller consumes it. There is no control protocol, so no reader, dispatcher or control threads and no
+ * message buffers beyond the one being parsed; only stderr is drained in the background. Use
+ * {@link ClaudeSDKClient} for interactive conversations, permission callbacks or hooks.
+ */
+public final class ClaudeCode {
+    private static final Logger LOGGER = Logger.getLogger(ClaudeCode.class.getName());
+
+    private ClaudeCode() {
+    }
+
+    public static Stream<Message> query(String prompt) throws ClaudeSDKException {
+        return query(prompt, new ClaudeCodeOptions());
+    }
+
+    /**
+     * Starts the CLI and returns its messages as a lazily read stream. Close the stream to stop the CLI early.
+     * A failure while reading makes the stream throw a {@link CompletionException} whose cause is the
+     * {@link ClaudeSDKException}.
+     */
+    public static Stream<Message> query(String prompt, ClaudeCodeOptions options) throws ClaudeSDKException {
+        OneShot oneShot = OneShot.start(prompt, options, false);
+        Spliterator<Message> spliterator =
+                Spliterators.spliteratorUnknownSize(oneShot, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(oneShot::close);
+    }
+
+    public static List<Message> queryMessages(String prompt) throws ClaudeSDKException {
+        return queryMessages(prompt, new ClaudeCodeOptions());
+    }
+
+    /**
+     * Runs the CLI to completion and returns all of its messages.
+     */
+    public static List<Message> queryMessages(String prompt, ClaudeCodeOptions options) throws ClaudeSDKException {
+        try (OneShot oneShot = OneShot.start(prompt, options, false)) {
+            List<Message> messages = new ArrayList<>();
+            while (oneShot.advance()) {
+                messages.add(oneShot.take());
+            }
+            return messages;
+        }
+    }
+
+    public static ResultMessage queryResult(String prompt) throws ClaudeSDKException {
+        return queryResult(prompt, new ClaudeCodeOptions());
+    }
+
+    /**
+     * Runs the CLI to completion and returns its final result. Other messages are framed but never parsed,
+     * which makes this the cheapest way to run many independent prompts.
+     *
+     * @throws CLIConnectionError if the CLI ended without a result
+     */
+    public static ResultMessage queryResult(String prompt, ClaudeCodeOptions options) throws ClaudeSDKException {
+        return resultOf(OneShot.start(prompt, options, true));
+    }
+
+    /**
+     * Reads {@code oneShot}, started with {@code resultsOnly}, to the end and closes it.
+     */
+    static ResultMessage resultOf(OneShot oneShot) throws ClaudeSDKException {
+        try (oneShot) {
+            ResultMessage result = null;
+            while (oneShot.advance()) {
+                result = (ResultMessage) oneShot.take();
+            }
+            if (result == null) {
+                throw new CLIConnectionError("Claude Code CLI exited without a result");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Pull-based reader over one CLI run. Messages are parsed on the calling thread, one chunk of output at a
+     * time, only when the caller asks for more.
+     */
+    static final class OneShot implements Iterator<Message>, Transport.MessageHandler, AutoCloseable {
+        private final SubprocessCLITransport transport;
+        private final boolean resultsOnly;
+        private final ArrayDeque<Message> ready = new ArrayDeque<>();
+        private ClaudeSDKException failure;
+        private boolean finished;
+        private boolean closed;
+
+        private OneShot(SubprocessCLITransport transport, boolean resultsOnly) {
+            this.transport = transport;
+            this.resultsOnly = resultsOnly;
+        }
+
+        static OneShot start(String prompt, ClaudeCodeOptions options, boolean resultsOnly)
+                throws ClaudeSDKException {
+            if (options.getCanUseTool() != null) {
+                throw new CLIConnectionError(
+                        "canUseTool callback requires streaming mode. Use ClaudeSDKClient with a streaming prompt.");
+            }
+            SubprocessCLITransport transport = new SubprocessCLITransport(false, prompt, options);
+            transport.connect();
+            OneShot oneShot = new OneShot(transport, resultsOnly);
+            try {
+                // The prompt is on the command line, so the CLI must not wait for input.
+                transport.endInput();
+            } catch (ClaudeSDKException e) {
+                oneShot.close();
+                throw e;
+            }
+            return oneShot;
+        }
+
+        /**
+         * Reads until a message is ready or the output ends. Returns whether a message is ready.
+         */
+        boolean advance() throws ClaudeSDKException {
+            while (ready.isEmpty() && !finished && failure == null) {
+                if (!transport.readNext(this)) {
+                    finished = true;
+                }
+            }
+            if (!ready.isEmpty()) {
+                return true;
+            }
+            close();
+            if (failure != null) {
+                throw failure;
+            }
+            return false;
+        }
+
+        Message take() {
+            return ready.pollFirst();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return advance();
+            } catch (ClaudeSDKException e) {
+                throw new CompletionException(e);
+            }
+        }
+
+        @Override
+        public Message next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return take();
+        }
+
+        @Override
+        public void onFrame(JsonFrame frame) {
+            String type = frame.getType();
+            if (resultsOnly && !"result".equals(type)) {
+                return;
+            }
+            try (JsonParser parser = frame.open()) {
+                MessageParser.PayloadSource payload = frame.isSpilled() ? null : frame::toMap;
+                ready.addLast(MessageParser.parseMessage(type, parser, payload));
+            } catch (ClaudeSDKException e) {
+                fail(e);
+            } catch (IOException e) {
+                fail(new CLIJSONDecodeError("Failed to decode " + type + " message", e));
+            }
+        }
+
+        @Override
+        public void onMessage(Map<String, Object> message) {
+            // Only reached by transports that do not frame, which readNext never does.
+            try {
+                ready.addLast(MessageParser.parseMessage(message));
+            } catch (ClaudeSDKException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            fail(error instanceof ClaudeSDKException sdkError
+                    ? sdkError
+                    : new CLIConnectionError("Failed to read from CLI", error));
+        }
+
+        @Override
+        public void onClosed() {
+            finished = true;
+        }
+
+        private void fail(ClaudeSDKException error) {
+            if (failure == null) {
+                failure = error;
+            }
+        }
+
+        /**
+         * Stops the CLI from any thread. The reading thread then sees the output end without a result.
+         */
+        void abort() {
+            try {
+                transport.close();
+            } catch (ClaudeSDKException e) {
+                LOGGER.log(Level.FINE, "Claude Code CLI exited with an error", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ready.clear();
+            try {
+                transport.close();
+            } catch (ClaudeSDKException e) {
+                // The exit status has already been reported through the handler.
+                LOGGER.log(Level.FINE, "Claude Code CLI exited with an error", e);
+            }
+        }
+    }
+}
@@ -1,18 +1,31 @@
 package com.anthropic.claudecode;
 
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+import com.anthropic.claudecode.transport.IoReactor;
+import com.anthropic.claudecode.transport.LaunchSpec;
+
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 /**
  * Configuration options for Claude Code interactions.
  */
 public class ClaudeCodeOptions {
+    private static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+    private static final int DEFAULT_STDERR_BUFFER_SIZE = 32 * 1024;
+    private static final int DEFAULT_MESSAGE_BUFFER_SIZE = 256;
+
     private List<String> allowedTools = new ArrayList<>();
     private String systemPrompt;
     private String appendSystemPrompt;
@@ -30,9 +43,26 @@ public class ClaudeCodeOptions {
     private Map<String, String> env = new LinkedHashMap<>();
     private Map<String, String> extraArgs = new LinkedHashMap<>();
     private OutputStream debugStderr;
+    private Consumer<String> stderrCallback;
+    private int stderrBufferSize = DEFAULT_STDERR_BUFFER_SIZE;
     private CanUseTool canUseTool;
     private Map<HookEvent, List<HookMatcher>> hooks;
     private String user;
+    private int readBufferSize = DEFAULT_READ_BUFFER_SIZE;
+    private int maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+    private OversizedMessagePolicy oversizedMessagePolicy = OversizedMessagePolicy.SPILL_TO_DISK;
+    private Path spillDirectory;
+    private Executor controlExecutor;
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private IoReactor ioReactor;
+    private int messageBufferSize = DEFAULT_MESSAGE_BUFFER_SIZE;
+    private OverflowStrategy overflowStrategy = OverflowStrategy.BLOCK;
+    private MessageDispatcher messageDispatcher;
+    private Duration writeFlushLatency = Duration.ZERO;
+    private JsonCodec jsonCodec;
+    private Path cliPath;
+    private volatile boolean frozen;
+    private volatile LaunchSpec launchSpec;
 
     public ClaudeCodeOptions copy() {
         ClaudeCodeOptions copy = new ClaudeCodeOptions();
@@ -57,6 +87,8 @@ public class ClaudeCodeOptions {
         copy.env = new LinkedHashMap<>(env);
         copy.extraArgs = new LinkedHashMap<>(extraArgs);
         copy.debugStderr = debugStderr;
+        copy.stderrCallback = stderrCallback;
+        copy.stderrBufferSize = stderrBufferSize;
         copy.canUseTool = canUseTool;
         if (hooks != null) {
             Map<HookEvent, List<HookMatcher>> hooksCopy = new HashMap<>();
@@ -64,14 +96,85 @@ public class ClaudeCodeOptions {
             copy.hooks = hooksCopy;
         }
         copy.user = user;
+        copy.readBufferSize = readBufferSize;
+        copy.maxBufferSize = maxBufferSize;
+        copy.oversizedMessagePolicy = oversizedMessagePolicy;
+        copy.spillDirectory = spillDirectory;
+        copy.controlExecutor = controlExecutor;
+        copy.threadMode = threadMode;
+        copy.ioReactor = ioReactor;
+        copy.messageBufferSize = messageBufferSize;
+        copy.overflowStrategy = overflowStrategy;
+        copy.messageDispatcher = messageDispatcher;
+        copy.writeFlushLatency = writeFlushLatency;
+        copy.jsonCodec = jsonCodec;
+        copy.cliPath = cliPath;
         return copy;
     }
 
+    /**
+     * Makes these options immutable and returns them. Setters then throw {@link IllegalStateException}, the
+     * collections returned by getters are unmodifiable, and {@link #toLaunchSpec()} is computed only once, so
+     * frozen options can be shared between clients and reused for any number of sessions.
+     * {@link #copy()} returns a modifiable copy.
+     */
+    public ClaudeCodeOptions freeze() {
+        synchronized (this) {
+            if (frozen) {
+                return this;
+            }
+            allowedTools = List.copyOf(allowedTools);
+            if (mcpServers instanceof Map<?, ?> map) {
+                mcpServers = Collections.unmodifiableMap(new LinkedHashMap<>(map));
+            }
+            disallowedTools = List.copyOf(disallowedTools);
+            addDirs = List.copyOf(addDirs);
+            env = Collections.unmodifiableMap(new LinkedHashMap<>(env));
+            extraArgs = Collections.unmodifiableMap(new LinkedHashMap<>(extraArgs));
+            if (hooks != null) {
+                Map<HookEvent, List<HookMatcher>> hooksCopy = new HashMap<>();
+                hooks.forEach((event, matchers) -> hooksCopy.put(event, List.copyOf(matchers)));
+                hooks = Collections.unmodifiableMap(hooksCopy);
+            }
+            frozen = true;
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Returns the command line, environment and working directory these options launch the CLI with. Frozen
+     * options compute it once and return the same spec afterwards.
+     *
+     * @throws ClaudeSDKException if the MCP server configuration cannot be encoded
+     */
+    public LaunchSpec toLaunchSpec() throws ClaudeSDKException {
+        if (!frozen) {
+            return LaunchSpec.of(this);
+        }
+        LaunchSpec spec = launchSpec;
+        if (spec == null) {
+            spec = LaunchSpec.of(this);
+            launchSpec = spec;
+        }
+        return spec;
+    }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("Options are frozen; modify a copy instead");
+        }
+    }
+
     public List<String> getAllowedTools() {
         return allowedTools;
     }
 
     public ClaudeCodeOptions setAllowedTools(List<String> allowedTools) {
+        checkMutable();
         this.allowedTools = Objects.requireNonNullElseGet(allowedTools, ArrayList::new);
         return this;
     }
@@ -81,6 +184,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setSystemPrompt(String systemPrompt) {
+        checkMutable();
         this.systemPrompt = systemPrompt;
         return this;
     }
@@ -90,6 +194,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setAppendSystemPrompt(String appendSystemPrompt) {
+        checkMutable();
         this.appendSystemPrompt = appendSystemPrompt;
         return this;
     }
@@ -99,6 +204,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setMcpServers(Object mcpServers) {
+        checkMutable();
         this.mcpServers = mcpServers;
         return this;
     }
@@ -108,6 +214,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setPermissionMode(PermissionMode permissionMode) {
+        checkMutable();
         this.permissionMode = permissionMode;
         return this;
     }
@@ -117,6 +224,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setContinueConversation(boolean continueConversation) {
+        checkMutable();
         this.continueConversation = continueConversation;
         return this;
     }
@@ -126,6 +234,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setResume(String resume) {
+        checkMutable();
         this.resume = resume;
         return this;
     }
@@ -135,6 +244,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setMaxTurns(Integer maxTurns) {
+        checkMutable();
         this.maxTurns = maxTurns;
         return this;
     }
@@ -144,6 +254,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setDisallowedTools(List<String> disallowedTools) {
+        checkMutable();
         this.disallowedTools = Objects.requireNonNullElseGet(disallowedTools, ArrayList::new);
         return this;
     }
@@ -153,6 +264,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setModel(String model) {
+        checkMutable();
         this.model = model;
         return this;
     }
@@ -162,6 +274,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setPermissionPromptToolName(String permissionPromptToolName) {
+        checkMutable();
         this.permissionPromptToolName = permissionPromptToolName;
         return this;
     }
@@ -171,6 +284,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setCwd(Path cwd) {
+        checkMutable();
         this.cwd = cwd;
         return this;
     }
@@ -180,6 +294,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setSettings(String settings) {
+        checkMutable();
         this.settings = settings;
         return this;
     }
@@ -189,6 +304,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setAddDirs(List<Path> addDirs) {
+        checkMutable();
         this.addDirs = Objects.requireNonNullElseGet(addDirs, ArrayList::new);
         return this;
     }
@@ -198,6 +314,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setEnv(Map<String, String> env) {
+        checkMutable();
         this.env = Objects.requireNonNullElseGet(env, LinkedHashMap::new);
         return this;
     }
@@ -207,6 +324,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setExtraArgs(Map<String, String> extraArgs) {
+        checkMutable();
         this.extraArgs = Objects.requireNonNullElseGet(extraArgs, LinkedHashMap::new);
         return this;
     }
@@ -216,15 +334,46 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setDebugStderr(OutputStream debugStderr) {
+        checkMutable();
         this.debugStderr = debugStderr;
         return this;
     }
 
+    public Consumer<String> getStderrCallback() {
+        return stderrCallback;
+    }
+
+    /**
+     * Receives each line the CLI writes to stderr, on the thread that drains it.
+     */
+    public ClaudeCodeOptions setStderrCallback(Consumer<String> stderrCallback) {
+        checkMutable();
+        this.stderrCallback = stderrCallback;
+        return this;
+    }
+
+    public int getStderrBufferSize() {
+        return stderrBufferSize;
+    }
+
+    /**
+     * Number of trailing stderr bytes retained for {@link com.anthropic.claudecode.exceptions.ProcessError}.
+     */
+    public ClaudeCodeOptions setStderrBufferSize(int stderrBufferSize) {
+        checkMutable();
+        if (stderrBufferSize <= 0) {
+            throw new IllegalArgumentException("stderrBufferSize must be positive");
+        }
+        this.stderrBufferSize = stderrBufferSize;
+        return this;
+    }
+
     public CanUseTool getCanUseTool() {
         return canUseTool;
     }
 
     public ClaudeCodeOptions setCanUseTool(CanUseTool canUseTool) {
+        checkMutable();
         this.canUseTool = canUseTool;
         return this;
     }
@@ -234,6 +383,7 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setHooks(Map<HookEvent, List<HookMatcher>> hooks) {
+        checkMutable();
         this.hooks = hooks;
         return this;
     }
@@ -243,7 +393,197 @@ public class ClaudeCodeOptions {
     }
 
     public ClaudeCodeOptions setUser(String user) {
+        checkMutable();
         this.user = user;
         return this;
     }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * Size of the reusable byte buffer that CLI stdout is read into before being handed to the JSON parser.
+     */
+    public ClaudeCodeOptions setReadBufferSize(int readBufferSize) {
+        checkMutable();
+        if (readBufferSize <= 0) {
+            throw new IllegalArgumentException("readBufferSize must be positive");
+        }
+        this.readBufferSize = readBufferSize;
+        return this;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * Largest message, in bytes, kept in memory while it is being read. What happens to larger messages is
+     * governed by {@link #setOversizedMessagePolicy(OversizedMessagePolicy)}.
+     */
+    public ClaudeCodeOptions setMaxBufferSize(int maxBufferSize) {
+        checkMutable();
+        if (maxBufferSize <= 0) {
+            throw new IllegalArgumentException("maxBufferSize must be positive");
+        }
+        this.maxBufferSize = maxBufferSize;
+        return this;
+    }
+
+    public OversizedMessagePolicy getOversizedMessagePolicy() {
+        return oversizedMessagePolicy;
+    }
+
+    public ClaudeCodeOptions setOversizedMessagePolicy(OversizedMessagePolicy oversizedMessagePolicy) {
+        checkMutable();
+        this.oversizedMessagePolicy = Objects.requireNonNull(oversizedMessagePolicy, "oversizedMessagePolicy");
+        return this;
+    }
+
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Directory for spilled messages; {@code null} uses the system temporary directory.
+     */
+    public ClaudeCodeOptions setSpillDirectory(Path spillDirectory) {
+        checkMutable();
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    public Executor getControlExecutor() {
+        return controlExecutor;
+    }
+
+    /**
+     * Executor for control request handlers and callbacks; {@code null} gives each client its own executor for
+     * the configured {@link ThreadMode}. An executor shared between clients, such as
+     * {@link ControlExecutor#shared()}, requires callbacks that do not block.
+     */
+    public ClaudeCodeOptions setControlExecutor(Executor controlExecutor) {
+        checkMutable();
+        this.controlExecutor = controlExecutor;
+        return this;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    /**
+     * Kind of threads used for the stdin writer and, unless a dispatcher or control executor is set, message
+     * delivery and control handling. Output is read on platform threads, or on an {@link IoReactor} under
+     * {@link ThreadMode#VIRTUAL}.
+     */
+    public ClaudeCodeOptions setThreadMode(ThreadMode threadMode) {
+        checkMutable();
+        this.threadMode = Objects.requireNonNull(threadMode, "threadMode");
+        return this;
+    }
+
+    public IoReactor getIoReactor() {
+        return ioReactor;
+    }
+
+    /**
+     * Reactor whose event loops read the CLI's stdout and stderr instead of two threads per process;
+     * {@code null} keeps the dedicated threads, or uses {@link IoReactor#shared()} under
+     * {@link ThreadMode#VIRTUAL}.
+     */
+    public ClaudeCodeOptions setIoReactor(IoReactor ioReactor) {
+        checkMutable();
+        this.ioReactor = ioReactor;
+        return this;
+    }
+
+    public int getMessageBufferSize() {
+        return messageBufferSize;
+    }
+
+    /**
+     * Number of parsed messages buffered for slow subscribers before the overflow strategy applies.
+     */
+    public ClaudeCodeOptions setMessageBufferSize(int messageBufferSize) {
+        checkMutable();
+        if (messageBufferSize <= 0) {
+            throw new IllegalArgumentException("messageBufferSize must be positive");
+        }
+        this.messageBufferSize = messageBufferSize;
+        return this;
+    }
+
+    public OverflowStrategy getOverflowStrategy() {
+        return overflowStrategy;
+    }
+
+    public ClaudeCodeOptions setOverflowStrategy(OverflowStrategy overflowStrategy) {
+        checkMutable();
+        this.overflowStrategy = Objects.requireNonNull(overflowStrategy, "overflowStrategy");
+        return this;
+    }
+
+    public MessageDispatcher getMessageDispatcher() {
+        return messageDispatcher;
+    }
+
+    /**
+     * Dispatcher that hands messages to subscribers; {@code null} gives each client
+     * {@link MessageDispatcher#forOptions(ClaudeCodeOptions) its own for the thread mode}. A dispatcher set here
+     * is shared by every client created from these options, so a subscriber that is slow in {@code onNext}
+     * delays delivery to all of them; its metrics cover all of them too, while
+     * {@link ClaudeSDKClient#getDeliveryMetrics()} reports one client.
+     */
+    public ClaudeCodeOptions setMessageDispatcher(MessageDispatcher messageDispatcher) {
+        checkMutable();
+        this.messageDispatcher = messageDispatcher;
+        return this;
+    }
+
+    public Duration getWriteFlushLatency() {
+        return writeFlushLatency;
+    }
+
+    /**
+     * How long stdin writes may wait for further messages so they can share one flush. The default of zero
+     * flushes as soon as no more messages are queued, which already batches messages sent concurrently.
+     */
+    public ClaudeCodeOptions setWriteFlushLatency(Duration writeFlushLatency) {
+        checkMutable();
+        Objects.requireNonNull(writeFlushLatency, "writeFlushLatency");
+        if (writeFlushLatency.isNegative()) {
+            throw new IllegalArgumentException("writeFlushLatency must not be negative");
+        }
+        this.writeFlushLatency = writeFlushLatency;
+        return this;
+    }
+
+    public JsonCodec getJsonCodec() {
+        return jsonCodec;
+    }
+
+    /**
+     * Codec used to read and write the CLI's JSON; {@code null} uses {@link JsonCodec#shared()}.
+     */
+    public ClaudeCodeOptions setJsonCodec(JsonCodec jsonCodec) {
+        checkMutable();
+        this.jsonCodec = jsonCodec;
+        return this;
+    }
+
+    public Path getCliPath() {
+        return cliPath;
+    }
+
+    /**
+     * Claude Code CLI to run. When {@code null}, the {@code CLAUDE_CODE_CLI_PATH} environment variable is used
+     * if set, and otherwise the CLI is looked up on {@code PATH} and in common install locations.
+     */
+    public ClaudeCodeOptions setCliPath(Path cliPath) {
+        checkMutable();
+        this.cliPath = cliPath;
+        return this;
+    }
 }
@@ -0,0 +1,378 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+import com.anthropic.claudecode.transport.LaunchSpec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps streaming-mode CLI processes spawned and initialized ahead of time so that clients can skip process
+ * start-up and the {@code initialize} handshake.
+ *
+ * <p>Processes are grouped by the {@link LaunchSpec} of the options they were launched with; a client only
+ * receives a process started with options equal to its own. Pass the pool to {@link
+ * ClaudeSDKClient#ClaudeSDKClient(ClaudeCodeOptions, ClaudeProcessPool)} to use it. Processes are recycled
+ * after {@link ProcessPoolOptions#getMaxUses()} leases or {@link ProcessPoolOptions#getMaxAge()}, and idle
+ * processes that exit are replaced in the background.
+ */
+public class ClaudeProcessPool implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ClaudeProcessPool.class.getName());
+
+    private final ProcessPoolOptions poolOptions;
+    private final Map<LaunchSpec, Partition> partitions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final AtomicLong spawned = new AtomicLong();
+    private final AtomicLong spawnFailures = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+    private final AtomicInteger leased = new AtomicInteger();
+
+    public ClaudeProcessPool() {
+        this(new ProcessPoolOptions());
+    }
+
+    public ClaudeProcessPool(ProcessPoolOptions poolOptions) {
+        this.poolOptions = poolOptions != null ? poolOptions : new ProcessPoolOptions();
+        this.scheduler = Executors.newScheduledThreadPool(this.poolOptions.getSpawnThreads(), r -> {
+            Thread thread = new Thread(r, "claude-process-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = this.poolOptions.getHealthCheckInterval().toMillis();
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts filling the pool for the given options in the background, so that the first client using them
+     * already finds a ready process.
+     */
+    public void prewarm(ClaudeCodeOptions options) {
+        ensureOpen();
+        ClaudeCodeOptions launchOptions = options.copy();
+        // Mirror the adjustment ClaudeSDKClient makes so that prewarmed processes match its leases.
+        if (launchOptions.getCanUseTool() != null) {
+            launchOptions.setPermissionPromptToolName("stdio");
+        }
+        try {
+            partition(launchOptions.freeze()).replenish();
+        } catch (ClaudeSDKException e) {
+            throw new IllegalArgumentException("Options cannot be launched: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns an initialized process for the options, starting one on the caller's thread when none is idle.
+     */
+    PooledProcess lease(ClaudeCodeOptions options) throws ClaudeSDKException {
+        ensureOpen();
+        Partition partition = partition(options);
+        partition.touch();
+        PooledProcess process;
+        while ((process = partition.poll()) != null) {
+            if (process.isHealthy()) {
+                hits.incrementAndGet();
+                break;
+            }
+            evictions.incrementAndGet();
+            closeQuietly(process);
+        }
+        if (process == null) {
+            misses.incrementAndGet();
+            process = spawn(partition.key, partition.options);
+        }
+        process.markLeased();
+        leased.incrementAndGet();
+        partition.replenish();
+        return process;
+    }
+
+    /**
+     * Returns a leased process. The previous client's subscribers are completed and its undelivered messages
+     * discarded. The process is reused while it stays healthy, idle and within its use and age limits, and
+     * closed otherwise.
+     */
+    void release(PooledProcess process) {
+        leased.decrementAndGet();
+        process.reset();
+        Partition partition = partitions.get(process.getKey());
+        if (closed.get() || partition == null || !isReusable(process) || !partition.offer(process)) {
+            recycled.incrementAndGet();
+            closeQuietly(process);
+        }
+        if (partition != null) {
+            partition.replenish();
+        }
+    }
+
+    public Metrics getMetrics() {
+        int idle = 0;
+        for (Partition partition : partitions.values()) {
+            idle += partition.idleCount();
+        }
+        return new Metrics(spawned.get(), spawnFailures.get(), hits.get(), misses.get(), evictions.get(),
+                recycled.get(), idle, leased.get());
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.shutdownNow();
+        for (Partition partition : partitions.values()) {
+            for (PooledProcess process : partition.drain()) {
+                closeQuietly(process);
+            }
+        }
+        partitions.clear();
+    }
+
+    private Partition partition(ClaudeCodeOptions options) throws ClaudeSDKException {
+        LaunchSpec key = options.toLaunchSpec();
+        Partition partition = partitions.get(key);
+        if (partition != null) {
+            return partition;
+        }
+        ClaudeCodeOptions frozen = options.isFrozen() ? options : options.copy().freeze();
+        return partitions.computeIfAbsent(key, k -> new Partition(k, frozen));
+    }
+
+    private PooledProcess spawn(LaunchSpec key, ClaudeCodeOptions options) throws ClaudeSDKException {
+        try {
+            PooledProcess process = PooledProcess.start(key, options);
+            spawned.incrementAndGet();
+            return process;
+        } catch (ClaudeSDKException | RuntimeException e) {
+            spawnFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean isReusable(PooledProcess process) {
+        return process.getUses() < poolOptions.getMaxUses()
+                && process.getAgeNanos() < poolOptions.getMaxAge().toNanos()
+                && process.isIdle()
+                && process.isHealthy();
+    }
+
+    private void checkHealth() {
+        long maxAge = poolOptions.getMaxAge().toNanos();
+        for (Iterator<Partition> it = partitions.values().iterator(); it.hasNext(); ) {
+            Partition partition = it.next();
+            for (PooledProcess process : partition.removeIf(p -> !p.isHealthy() || p.getAgeNanos() >= maxAge)) {
+                evictions.incrementAndGet();
+                closeQuietly(process);
+            }
+            // Options nobody has asked for within the age limit are no longer kept warm.
+            if (partition.idleSinceNanos() >= maxAge) {
+                it.remove();
+                for (PooledProcess process : partition.drain()) {
+                    closeQuietly(process);
+                }
+            } else {
+                partition.replenish();
+            }
+        }
+    }
+
+    private void closeQuietly(PooledProcess process) {
+        try {
+            process.close();
+        } catch (ClaudeSDKException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to close pooled CLI process", e);
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("Process pool is closed");
+        }
+    }
+
+    /**
+     * Idle processes launched with one particular set of options.
+     */
+    private final class Partition {
+        private final LaunchSpec key;
+        private final ClaudeCodeOptions options;
+        private final Deque<PooledProcess> idle = new ArrayDeque<>();
+        private int starting;
+        private volatile long lastLeased = System.nanoTime();
+
+        Partition(LaunchSpec key, ClaudeCodeOptions options) {
+            this.key = key;
+            this.options = options;
+        }
+
+        synchronized PooledProcess poll() {
+            return idle.pollFirst();
+        }
+
+        synchronized boolean offer(PooledProcess process) {
+            if (idle.size() >= Math.max(poolOptions.getMinIdle(), 1)) {
+                return false;
+            }
+            idle.addLast(process);
+            return true;
+        }
+
+        synchronized int idleCount() {
+            return idle.size();
+        }
+
+        synchronized List<PooledProcess> drain() {
+            List<PooledProcess> drained = new ArrayList<>(idle);
+            idle.clear();
+            return drained;
+        }
+
+        synchronized List<PooledProcess> removeIf(Predicate<PooledProcess> predicate) {
+            List<PooledProcess> removed = new ArrayList<>();
+            idle.removeIf(process -> predicate.test(process) && removed.add(process));
+            return removed;
+        }
+
+        void touch() {
+            lastLeased = System.nanoTime();
+        }
+
+        long idleSinceNanos() {
+            return System.nanoTime() - lastLeased;
+        }
+
+        void replenish() {
+            int missing;
+            synchronized (this) {
+                missing = poolOptions.getMinIdle() - idle.size() - starting;
+                if (missing <= 0 || closed.get()) {
+                    return;
+                }
+                starting += missing;
+            }
+            for (int i = 0; i < missing; i++) {
+                try {
+                    scheduler.execute(this::startOne);
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        starting--;
+                    }
+                }
+            }
+        }
+
+        private void startOne() {
+            PooledProcess process = null;
+            try {
+                process = spawn(key, options);
+            } catch (ClaudeSDKException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to start pooled CLI process", e);
+            }
+            boolean added;
+            synchronized (this) {
+                starting--;
+                added = process != null && !closed.get() && idle.add(process);
+            }
+            if (process != null && !added) {
+                closeQuietly(process);
+            }
+        }
+    }
+
+    /**
+     * A point-in-time snapshot of pool activity.
+     */
+    public static final class Metrics {
+        private final long spawned;
+        private final long spawnFailures;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long recycled;
+        private final int idle;
+        private final int leased;
+
+        Metrics(long spawned, long spawnFailures, long hits, long misses, long evictions, long recycled,
+                int idle, int leased) {
+            this.spawned = spawned;
+            this.spawnFailures = spawnFailures;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.recycled = recycled;
+            this.idle = idle;
+            this.leased = leased;
+        }
+
+        public long getSpawned() {
+            return spawned;
+        }
+
+        public long getSpawnFailures() {
+            return spawnFailures;
+        }
+
+        /**
+         * Leases served by an already initialized process.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Leases that had to start a process on the caller's thread.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Idle processes closed because they exited, failed a health check or exceeded the maximum age.
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * Returned processes closed because they reached their use or age limit or the pool was full.
+         */
+        public long getRecycled() {
+            return recycled;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getLeased() {
+            return leased;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{spawned=" + spawned + ", spawnFailures=" + spawnFailures + ", hits=" + hits
+                    + ", misses=" + misses + ", evictions=" + evictions + ", recycled=" + recycled
+                    + ", idle=" + idle + ", leased=" + leased + "}";
+        }
+    }
+}
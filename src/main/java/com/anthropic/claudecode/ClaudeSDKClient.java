@@ -7,14 +7,14 @@ import com.anthropic.claudecode.messages.Message;
 import com.anthropic.claudecode.messages.ResultMessage;
 import com.anthropic.claudecode.transport.SubprocessCLITransport;
 import com.anthropic.claudecode.transport.Transport;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Flow;
-import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * High-level client providing interactive access to Claude Code.
@@ -33,11 +33,12 @@ public class ClaudeSDKClient implements AutoCloseable {
                 }
             });
 
-    private final ObjectMapper mapper = new ObjectMapper();
     private ClaudeCodeOptions options;
+    private final ClaudeProcessPool processPool;
+    private PooledProcess pooledProcess;
     private Transport transport;
     private Query query;
-    private SubmissionPublisher<Message> responsePublisher;
+    private Flow.Publisher<Message> responsePublisher;
     private final AtomicBoolean connected = new AtomicBoolean();
 
     public ClaudeSDKClient() {
@@ -45,7 +46,16 @@ public class ClaudeSDKClient implements AutoCloseable {
     }
 
     public ClaudeSDKClient(ClaudeCodeOptions options) {
+        this(options, null);
+    }
+
+    /**
+     * Creates a client that takes its CLI process from {@code processPool} when connecting in streaming mode.
+     * String prompts are passed on the command line and always start a new process.
+     */
+    public ClaudeSDKClient(ClaudeCodeOptions options, ClaudeProcessPool processPool) {
         this.options = options != null ? options : new ClaudeCodeOptions();
+        this.processPool = processPool;
     }
 
     public void connect() throws ClaudeSDKException {
@@ -79,20 +89,19 @@ public class ClaudeSDKClient implements AutoCloseable {
             throw new CLIConnectionError(
                     "canUseTool callback cannot be used with permission_prompt_tool_name simultaneously.");
         }
-        ClaudeCodeOptions effectiveOptions = options.copy();
-        if (options.getCanUseTool() != null) {
-            effectiveOptions.setPermissionPromptToolName("stdio");
+        ClaudeCodeOptions effectiveOptions = launchOptions();
+        if (processPool != null && streaming) {
+            this.pooledProcess = processPool.lease(effectiveOptions);
+            this.transport = pooledProcess.getTransport();
+            this.query = pooledProcess.getQuery();
+        } else {
+            this.transport = new SubprocessCLITransport(streaming, promptString, effectiveOptions);
+            transport.connect();
+
+            this.query = new Query(transport, streaming, effectiveOptions);
+            query.start();
+            query.initialize();
         }
-        this.transport = new SubprocessCLITransport(streaming, promptString, effectiveOptions);
-        transport.connect();
-
-        this.query = new Query(
-                transport,
-                streaming,
-                effectiveOptions.getCanUseTool(),
-                effectiveOptions.getHooks());
-        query.start();
-        query.initialize();
         this.responsePublisher = query.getPublisher();
         connected.set(true);
 
@@ -101,52 +110,107 @@ public class ClaudeSDKClient implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns frozen options to launch with. Frozen options that need no adjustment are used as they are, so
+     * their launch spec is not computed again.
+     */
+    private ClaudeCodeOptions launchOptions() {
+        if (options.getCanUseTool() == null && options.isFrozen()) {
+            return options;
+        }
+        ClaudeCodeOptions launchOptions = options.copy();
+        if (options.getCanUseTool() != null) {
+            launchOptions.setPermissionPromptToolName("stdio");
+        }
+        return launchOptions.freeze();
+    }
+
+    /**
+     * Returns all messages until the client disconnects. A message is delivered once every subscriber has
+     * requested it, so subscribers that stop requesting should cancel rather than hold back the others.
+     */
     public Flow.Publisher<Message> receiveMessages() {
         ensureConnected();
         return responsePublisher;
     }
 
+    /**
+     * Returns a view of {@link #receiveMessages()} that completes after the next {@link ResultMessage}. The view
+     * subscribes straight to the message stream, without a buffer of its own, and unsubscribes when it ends.
+     */
     public Flow.Publisher<Message> receiveResponse() {
         ensureConnected();
-        SubmissionPublisher<Message> publisher = new SubmissionPublisher<>();
-        responsePublisher.subscribe(new Flow.Subscriber<>() {
-            private Flow.Subscription subscription;
-            private boolean done;
-
-            @Override
-            public void onSubscribe(Flow.Subscription subscription) {
-                this.subscription = subscription;
-                subscription.request(Long.MAX_VALUE);
-            }
-
-            @Override
-            public void onNext(Message item) {
-                if (done) {
-                    return;
-                }
-                publisher.submit(item);
-                if (item instanceof ResultMessage) {
-                    done = true;
-                    subscription.cancel();
-                    publisher.close();
-                }
-            }
+        return new ResponseView(responsePublisher);
+    }
 
-            @Override
-            public void onError(Throwable throwable) {
-                if (!done) {
-                    publisher.closeExceptionally(throwable);
-                }
-            }
+    /**
+     * Returns a blocking iterator over all messages until the client disconnects.
+     */
+    public MessageIterator iterateMessages() {
+        ensureConnected();
+        return new MessageIterator(responsePublisher, MessageIterator.DEFAULT_PREFETCH);
+    }
 
-            @Override
-            public void onComplete() {
-                if (!done) {
-                    publisher.close();
-                }
-            }
-        });
-        return publisher;
+    /**
+     * Returns a blocking iterator over the messages up to and including the next {@link ResultMessage}.
+     */
+    public MessageIterator iterateResponse() {
+        ensureConnected();
+        return new MessageIterator(new ResponseView(responsePublisher), MessageIterator.DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Returns all messages until the client disconnects as a stream, which should be closed if not consumed
+     * to the end.
+     */
+    public Stream<Message> streamMessages() {
+        return iterateMessages().stream();
+    }
+
+    /**
+     * Returns the messages up to and including the next {@link ResultMessage} as a stream.
+     */
+    public Stream<Message> streamResponse() {
+        return iterateResponse().stream();
+    }
+
+    /**
+     * Calls {@code handler} with every message until the client disconnects, on the thread delivering the
+     * message. The returned future completes with the last result seen when the stream ends, fails if the stream
+     * or the handler fails, and unsubscribes when cancelled.
+     */
+    public CompletableFuture<ResultMessage> onMessage(Consumer<? super Message> handler) {
+        ensureConnected();
+        CallbackSubscriber subscriber = new CallbackSubscriber(handler, MessageIterator.DEFAULT_PREFETCH);
+        responsePublisher.subscribe(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * Calls {@code handler} with the messages up to and including the next {@link ResultMessage}, and completes
+     * the returned future with that result.
+     */
+    public CompletableFuture<ResultMessage> onResponse(Consumer<? super Message> handler) {
+        ensureConnected();
+        CallbackSubscriber subscriber = new CallbackSubscriber(handler, MessageIterator.DEFAULT_PREFETCH);
+        new ResponseView(responsePublisher).subscribe(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * Returns the dispatcher this client delivers messages on, once connected. Its metrics cover every client sharing it.
+     */
+    public MessageDispatcher getMessageDispatcher() {
+        ensureConnected();
+        return query.getMessageDispatcher();
+    }
+
+    /**
+     * Returns the delivery latency of this client's messages, once connected.
+     */
+    public DeliveryMetrics getDeliveryMetrics() {
+        ensureConnected();
+        return query.getDeliveryMetrics();
     }
 
     public void query(String prompt) throws ClaudeSDKException {
@@ -163,11 +227,7 @@ public class ClaudeSDKClient implements AutoCloseable {
         message.put("message", payload);
         message.put("parent_tool_use_id", null);
         message.put("session_id", sessionId);
-        try {
-            transport.write(mapper.writeValueAsString(message) + "\n");
-        } catch (JsonProcessingException e) {
-            throw new CLIConnectionError("Failed to encode message", e);
-        }
+        transport.writeMessage(message);
     }
 
     public void query(Flow.Publisher<Map<String, Object>> stream, String sessionId) throws ClaudeSDKException {
@@ -177,7 +237,6 @@ public class ClaudeSDKClient implements AutoCloseable {
                     @Override
                     public void onSubscribe(Flow.Subscription subscription) {
                         subscriber.onSubscribe(subscription);
-                        subscription.request(Long.MAX_VALUE);
                     }
 
                     @Override
@@ -205,6 +264,14 @@ public class ClaudeSDKClient implements AutoCloseable {
         query.interrupt();
     }
 
+    /**
+     * Sends an interrupt without waiting for the CLI to acknowledge it.
+     */
+    public CompletableFuture<Void> interruptAsync() {
+        ensureConnected();
+        return query.interruptAsync();
+    }
+
     public Map<String, Object> getServerInfo() throws ClaudeSDKException {
         ensureConnected();
         return query.getInitializationResult();
@@ -219,7 +286,13 @@ public class ClaudeSDKClient implements AutoCloseable {
         if (!connected.get()) {
             return;
         }
-        query.close();
+        if (pooledProcess != null) {
+            PooledProcess process = pooledProcess;
+            pooledProcess = null;
+            processPool.release(process);
+        } else {
+            query.close();
+        }
         connected.set(false);
     }
 
@@ -0,0 +1,154 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.internal.ThreadSupport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor that runs control request handlers and permission/hook callbacks.
+ *
+ * <p>Clients that configure none get an executor of their own, whose threads time out when idle, so a
+ * callback that blocks (a UI prompt, a remote policy call) only holds up its own client. One instance can be
+ * shared by any number of clients through {@link ClaudeCodeOptions#setControlExecutor(Executor)}, for example
+ * {@link #shared()}; callbacks of clients sharing an executor must not block, or they starve control handling
+ * for all of them. Tasks beyond the thread limit wait in a bounded queue, and tasks beyond the queue capacity
+ * are rejected. A rejected control request is answered with an error so that the CLI does not wait for it.
+ */
+public final class ControlExecutor implements Executor, AutoCloseable {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int DEFAULT_VIRTUAL_CONCURRENCY = 256;
+
+    private final ThreadPoolExecutor delegate;
+    private final AtomicLong rejected = new AtomicLong();
+    private boolean shared;
+
+    private ControlExecutor(int maxThreads, int queueCapacity, ThreadFactory threadFactory) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads must be at least 1");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        this.delegate = new ThreadPoolExecutor(
+                maxThreads,
+                maxThreads,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory,
+                (task, executor) -> {
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException("Control executor is saturated");
+                });
+        delegate.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns a process-wide executor that clients can opt into to share threads.
+     */
+    public static ControlExecutor shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Returns the process-wide executor for {@link ThreadMode#VIRTUAL}, which is {@link #shared()} on runtimes
+     * without virtual threads.
+     */
+    public static ControlExecutor sharedVirtual() {
+        return ThreadSupport.isVirtualThreadSupported() ? SharedVirtual.INSTANCE : shared();
+    }
+
+    /**
+     * Returns the executor a client with the given options runs its control handling on: the configured one, or
+     * a new executor for the client alone, on virtual threads under {@link ThreadMode#VIRTUAL} where supported.
+     * The caller closes an executor created here once the client is closed.
+     */
+    public static Executor forOptions(ClaudeCodeOptions options) {
+        if (options.getControlExecutor() != null) {
+            return options.getControlExecutor();
+        }
+        if (options.getThreadMode() == ThreadMode.VIRTUAL && ThreadSupport.isVirtualThreadSupported()) {
+            return virtualThreads();
+        }
+        return bounded(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates an executor backed by at most {@code maxThreads} daemon platform threads.
+     */
+    public static ControlExecutor bounded(int maxThreads, int queueCapacity) {
+        return new ControlExecutor(maxThreads, queueCapacity, ThreadSupport.platformThreadFactory("claude-control"));
+    }
+
+    /**
+     * Creates an executor that runs each task on a virtual thread, with at most {@code maxConcurrency} tasks
+     * running at once.
+     *
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     */
+    public static ControlExecutor virtualThreads(int maxConcurrency, int queueCapacity) {
+        return new ControlExecutor(maxConcurrency, queueCapacity, ThreadSupport.virtualThreadFactory("claude-control"));
+    }
+
+    public static ControlExecutor virtualThreads() {
+        return virtualThreads(DEFAULT_VIRTUAL_CONCURRENCY, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(command);
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return delegate.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return delegate.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return delegate.getCompletedTaskCount();
+    }
+
+    /**
+     * Returns the number of tasks rejected because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops accepting tasks and lets queued ones finish. Closing a shared executor has no effect.
+     */
+    @Override
+    public void close() {
+        if (!shared) {
+            delegate.shutdown();
+        }
+    }
+
+    private ControlExecutor markShared() {
+        shared = true;
+        return this;
+    }
+
+    private static final class Shared {
+        static final ControlExecutor INSTANCE = bounded(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY).markShared();
+    }
+
+    private static final class SharedVirtual {
+        static final ControlExecutor INSTANCE = virtualThreads().markShared();
+    }
+}
@@ -0,0 +1,95 @@
+package com.anthropic.claudecode;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency between a CLI message becoming available and its hand-off to subscribers, as recorded by one
+ * {@link MessageDispatcher} or for one client.
+ *
+ * <p>Latencies are counted in power-of-two nanosecond buckets, so percentiles are upper bounds accurate to a
+ * factor of two.
+ */
+public final class DeliveryMetrics {
+    private static final int BUCKETS = 64;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final DeliveryMetrics parent;
+
+    DeliveryMetrics() {
+        this(null);
+    }
+
+    /**
+     * Creates metrics whose recordings are also made in {@code parent}, if it is not {@code null}.
+     */
+    DeliveryMetrics(DeliveryMetrics parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Records one delivered message that waited {@code nanos} before delivery.
+     */
+    public void record(long nanos) {
+        long latency = Math.max(0, nanos);
+        count.increment();
+        totalNanos.add(latency);
+        maxNanos.accumulateAndGet(latency, Math::max);
+        histogram.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(latency));
+        if (parent != null) {
+            parent.record(latency);
+        }
+    }
+
+    public long getDeliveredCount() {
+        return count.sum();
+    }
+
+    public long getMeanLatencyNanos() {
+        long delivered = count.sum();
+        return delivered == 0 ? 0 : totalNanos.sum() / delivered;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns an upper bound of the latency below which {@code percentile} percent of deliveries fall.
+     */
+    public long getPercentileLatencyNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= threshold && seen > 0) {
+                return i == 0 ? 0 : Math.min(maxNanos.get(), (1L << i) - 1);
+            }
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryMetrics{delivered=" + getDeliveredCount()
+                + ", meanNanos=" + getMeanLatencyNanos()
+                + ", p99Nanos=" + getPercentileLatencyNanos(99)
+                + ", maxNanos=" + getMaxLatencyNanos() + "}";
+    }
+}
@@ -0,0 +1,216 @@
+package com.anthropic.claudecode;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.type.ResolvedType;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON reading and writing shared by every client, transport and query.
+ *
+ * <p>A codec wraps one {@link ObjectMapper} and caches an {@link ObjectReader} per target type and a single
+ * {@link ObjectWriter}, so reading a message costs neither type resolution nor a deserializer lookup. The
+ * mapper's caches are warmed up with the SDK's message shapes when the codec is created, so short-lived
+ * clients do not each pay for that on their first messages. Parsers and token buffers created by the SDK are
+ * bound to the codec, so their {@code readValueAs} calls go through the cached readers.
+ *
+ * <p>{@link #shared()} is used unless {@link ClaudeCodeOptions#setJsonCodec(JsonCodec)} supplies another. Its
+ * mapper reads floating point numbers as {@code double}, integers as the smallest fitting type, and interns
+ * field names, which message keys repeat on every line.
+ */
+public final class JsonCodec extends ObjectCodec {
+    private static final JsonCodec SHARED = new JsonCodec(defaultMapper());
+
+    private final ObjectMapper mapper;
+    private final ObjectWriter writer;
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private JsonCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.writer = mapper.writer();
+        warmUp();
+    }
+
+    /**
+     * Returns the codec used when options do not name one.
+     */
+    public static JsonCodec shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the codec for {@code options}, which is the shared one unless the options supply their own.
+     */
+    public static JsonCodec forOptions(ClaudeCodeOptions options) {
+        JsonCodec codec = options.getJsonCodec();
+        return codec != null ? codec : SHARED;
+    }
+
+    /**
+     * Creates a codec around {@code mapper}, for example one with different deserialization features. The
+     * mapper must not be reconfigured afterwards. Create one codec per mapper and reuse it.
+     */
+    public static JsonCodec of(ObjectMapper mapper) {
+        return new JsonCodec(Objects.requireNonNull(mapper, "mapper"));
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    public ObjectWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Returns the cached reader for {@code type}.
+     */
+    public ObjectReader readerFor(Type type) {
+        ObjectReader reader = readers.get(type);
+        if (reader == null) {
+            reader = readers.computeIfAbsent(type, key -> mapper.readerFor(mapper.constructType(key)));
+        }
+        return reader;
+    }
+
+    /**
+     * Writes {@code value} as UTF-8 JSON to {@code out}, flushing but not closing it.
+     */
+    public void writeValue(OutputStream out, Object value) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writer.writeValue(generator, value);
+        }
+    }
+
+    @Override
+    public Version version() {
+        return mapper.version();
+    }
+
+    @Override
+    public <T> T readValue(JsonParser p, Class<T> valueType) throws IOException {
+        return readerFor(valueType).readValue(p);
+    }
+
+    @Override
+    public <T> T readValue(JsonParser p, TypeReference<T> valueTypeRef) throws IOException {
+        return readerFor(valueTypeRef.getType()).readValue(p);
+    }
+
+    @Override
+    public <T> T readValue(JsonParser p, ResolvedType valueType) throws IOException {
+        return mapper.readerFor((JavaType) valueType).readValue(p);
+    }
+
+    @Override
+    public <T> Iterator<T> readValues(JsonParser p, Class<T> valueType) throws IOException {
+        return readerFor(valueType).readValues(p);
+    }
+
+    @Override
+    public <T> Iterator<T> readValues(JsonParser p, TypeReference<T> valueTypeRef) throws IOException {
+        return readerFor(valueTypeRef.getType()).readValues(p);
+    }
+
+    @Override
+    public <T> Iterator<T> readValues(JsonParser p, ResolvedType valueType) throws IOException {
+        return mapper.readerFor((JavaType) valueType).readValues(p);
+    }
+
+    @Override
+    public void writeValue(JsonGenerator gen, Object value) throws IOException {
+        writer.writeValue(gen, value);
+    }
+
+    @Override
+    public <T extends TreeNode> T readTree(JsonParser p) throws IOException {
+        return mapper.readTree(p);
+    }
+
+    @Override
+    public void writeTree(JsonGenerator gen, TreeNode tree) throws IOException {
+        mapper.writeTree(gen, tree);
+    }
+
+    @Override
+    public TreeNode createObjectNode() {
+        return mapper.createObjectNode();
+    }
+
+    @Override
+    public TreeNode createArrayNode() {
+        return mapper.createArrayNode();
+    }
+
+    @Override
+    public JsonParser treeAsTokens(TreeNode n) {
+        return mapper.treeAsTokens(n);
+    }
+
+    @Override
+    public <T> T treeToValue(TreeNode n, Class<T> valueType) throws JsonProcessingException {
+        return mapper.treeToValue(n, valueType);
+    }
+
+    @Override
+    public JsonFactory getFactory() {
+        return mapper.getFactory();
+    }
+
+    @Override
+    @Deprecated
+    public JsonFactory getJsonFactory() {
+        return mapper.getFactory();
+    }
+
+    /**
+     * Resolves the serializers and deserializers for the shapes the SDK reads and writes.
+     */
+    private void warmUp() {
+        String sample = "{\"type\":\"assistant\",\"n\":1,\"big\":12345678901,\"f\":0.5,\"ok\":true,\"none\":null,"
+                + "\"message\":{\"content\":[{\"type\":\"text\",\"text\":\"\"}]},\"list\":[]}";
+        try {
+            Map<String, Object> map = readerFor(new TypeReference<Map<String, Object>>() {}.getType())
+                    .readValue(sample);
+            readerFor(Object.class).readValue(sample);
+            Map<String, Object> message = new LinkedHashMap<>(map);
+            message.put("list", List.of(Map.of("k", "v")));
+            writer.writeValue(OutputStream.nullOutputStream(), message);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to initialize JSON codec", e);
+        }
+    }
+
+    private static ObjectMapper defaultMapper() {
+        JsonFactory factory = JsonFactory.builder()
+                .enable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES)
+                .enable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+                .build();
+        return JsonMapper.builder(factory)
+                .disable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+                .disable(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS)
+                .build();
+    }
+}
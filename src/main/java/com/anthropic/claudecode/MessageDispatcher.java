@@ -0,0 +1,268 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.internal.ThreadSupport;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides which thread hands CLI messages to subscribers, and measures how long messages wait for it.
+ *
+ * <p>Clients that configure none get a dispatcher of their own, so a slow subscriber only delays its own
+ * client. One can be shared by several clients through
+ * {@link ClaudeCodeOptions#setMessageDispatcher(MessageDispatcher)}, for example {@link #shared()}; subscribers
+ * then run on the shared threads, so one that is slow in {@code onNext} holds up delivery to every client
+ * sharing them, and {@link #getMetrics()} covers all of those clients. Each client's messages are always
+ * delivered one at a time and in order, whichever strategy is used:
+ * <ul>
+ *   <li>{@link #sameThread()} delivers on the thread that read the message, with no hand-off at all;</li>
+ *   <li>{@link #executor(Executor)} delivers on an executor of the application's choosing;</li>
+ *   <li>{@link #ringBuffer(int)} delivers on one dedicated thread fed through a preallocated ring buffer.</li>
+ * </ul>
+ */
+public final class MessageDispatcher implements Executor, AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(MessageDispatcher.class.getName());
+    private static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final Executor delegate;
+    private final AutoCloseable resource;
+    private final DeliveryMetrics metrics = new DeliveryMetrics();
+    private boolean shared;
+
+    private MessageDispatcher(Executor delegate, AutoCloseable resource) {
+        this.delegate = delegate;
+        this.resource = resource;
+    }
+
+    /**
+     * Returns a process-wide dispatcher that clients can opt into, a small pool of daemon threads reserved for
+     * message delivery.
+     */
+    public static MessageDispatcher shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Returns the process-wide dispatcher for {@link ThreadMode#VIRTUAL}, which delivers each run of messages on
+     * a new virtual thread, or {@link #shared()} on runtimes without virtual threads.
+     */
+    public static MessageDispatcher sharedVirtual() {
+        return ThreadSupport.isVirtualThreadSupported() ? SharedVirtual.INSTANCE : shared();
+    }
+
+    /**
+     * Returns the dispatcher a client with the given options delivers its messages on: the configured one, or a
+     * new one for the client alone. The new dispatcher delivers on a thread of its own that exits when idle, or
+     * on a new virtual thread for each run of messages under {@link ThreadMode#VIRTUAL} where supported, so it
+     * needs no closing.
+     */
+    public static MessageDispatcher forOptions(ClaudeCodeOptions options) {
+        if (options.getMessageDispatcher() != null) {
+            return options.getMessageDispatcher();
+        }
+        if (options.getThreadMode() == ThreadMode.VIRTUAL && ThreadSupport.isVirtualThreadSupported()) {
+            ThreadFactory factory = ThreadSupport.virtualThreadFactory("claude-dispatch");
+            return new MessageDispatcher(command -> factory.newThread(command).start(), null);
+        }
+        return new MessageDispatcher(pool(1), null);
+    }
+
+    /**
+     * Creates a dispatcher that delivers on the thread reading the CLI's output, or on the subscriber's thread
+     * when a request releases buffered messages. Subscribers must return quickly and must not wait for control
+     * responses from within {@code onNext}, since the reader cannot read them meanwhile.
+     */
+    public static MessageDispatcher sameThread() {
+        return new MessageDispatcher(Runnable::run, null);
+    }
+
+    /**
+     * Creates a dispatcher that delivers on {@code executor}. The executor is not shut down on close.
+     */
+    public static MessageDispatcher executor(Executor executor) {
+        return new MessageDispatcher(Objects.requireNonNull(executor, "executor"), null);
+    }
+
+    /**
+     * Creates a dispatcher with one dedicated daemon thread that takes delivery work from a ring buffer with
+     * {@code capacity} slots. Each client occupies at most one slot at a time, so the capacity bounds how many
+     * clients can have deliveries waiting at once; beyond it, producers wait for a free slot.
+     */
+    public static MessageDispatcher ringBuffer(int capacity) {
+        RingBufferExecutor ring = new RingBufferExecutor(capacity);
+        return new MessageDispatcher(ring, ring);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(command);
+    }
+
+    /**
+     * Returns the delivery latency of every client using this dispatcher.
+     */
+    public DeliveryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns new metrics for the deliveries of one client, which are also counted in {@link #getMetrics()}.
+     */
+    public DeliveryMetrics newClientMetrics() {
+        return new DeliveryMetrics(metrics);
+    }
+
+    /**
+     * Stops a dedicated delivery thread. Closing a shared dispatcher, or one wrapping an application executor,
+     * has no effect.
+     */
+    @Override
+    public void close() {
+        if (shared || resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to close message dispatcher", e);
+        }
+    }
+
+    private MessageDispatcher markShared() {
+        shared = true;
+        return this;
+    }
+
+    private static final class Shared {
+        static final MessageDispatcher INSTANCE = createShared();
+
+        private static MessageDispatcher createShared() {
+            return new MessageDispatcher(pool(DEFAULT_THREADS), null).markShared();
+        }
+    }
+
+    /**
+     * Creates a pool of daemon threads that exit after a minute without work.
+     */
+    private static ThreadPoolExecutor pool(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60,
+                TimeUnit.SECONDS,
+                // Each client has at most one delivery task queued, so the queue is bounded by the client count.
+                new LinkedBlockingQueue<>(),
+                ThreadSupport.platformThreadFactory("claude-dispatch"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static final class SharedVirtual {
+        static final MessageDispatcher INSTANCE = createSharedVirtual();
+
+        private static MessageDispatcher createSharedVirtual() {
+            // Each client has at most one delivery task at a time, so a thread per task needs no bound.
+            ThreadFactory factory = ThreadSupport.virtualThreadFactory("claude-dispatch");
+            return new MessageDispatcher(command -> factory.newThread(command).start(), null).markShared();
+        }
+    }
+
+    /**
+     * Fixed array of task slots written by producers in claim order and drained by a single consumer thread,
+     * which spins briefly and then parks when the ring is empty.
+     */
+    private static final class RingBufferExecutor implements Executor, AutoCloseable {
+        private static final int SPINS = 200;
+
+        private final AtomicReferenceArray<Runnable> slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private final Thread consumer;
+        private volatile long head;
+        private volatile boolean parked;
+        private volatile boolean closed;
+
+        RingBufferExecutor(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be at least 1");
+            }
+            int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+            slots = new AtomicReferenceArray<>(size);
+            mask = size - 1;
+            consumer = ThreadSupport.platformThreadFactory("claude-dispatch-ring").newThread(this::run);
+            consumer.start();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            Objects.requireNonNull(command, "command");
+            while (true) {
+                if (closed) {
+                    throw new RejectedExecutionException("Message dispatcher is closed");
+                }
+                long claimed = tail.get();
+                if (claimed - head > mask) {
+                    if (Thread.currentThread() == consumer) {
+                        // The consumer cannot wait for itself to free a slot.
+                        command.run();
+                        return;
+                    }
+                    LockSupport.parkNanos(1_000);
+                    continue;
+                }
+                if (tail.compareAndSet(claimed, claimed + 1)) {
+                    slots.set((int) (claimed & mask), command);
+                    if (parked) {
+                        LockSupport.unpark(consumer);
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void run() {
+            int idle = 0;
+            while (!closed) {
+                int index = (int) (head & mask);
+                Runnable task = slots.get(index);
+                if (task == null) {
+                    if (++idle < SPINS) {
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    parked = true;
+                    if (slots.get(index) == null && !closed) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                    idle = 0;
+                    continue;
+                }
+                idle = 0;
+                slots.set(index, null);
+                head = head + 1;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Message delivery task failed", e);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            LockSupport.unpark(consumer);
+        }
+    }
+}
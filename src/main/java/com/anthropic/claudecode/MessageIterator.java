@@ -0,0 +1,179 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.exceptions.CLIConnectionError;
+import com.anthropic.claudecode.messages.Message;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Blocking iterator over a message stream, for callers that simply loop over messages.
+ *
+ * <p>Messages are handed from the delivering thread to the iterating thread through one small queue, and at
+ * most {@code prefetch} of them are requested ahead of the caller, so a slow loop still applies backpressure.
+ * With {@link MessageDispatcher#sameThread()} the only hand-off is the one from the CLI reader to the caller.
+ * A failed stream makes {@link #hasNext()} throw a {@link CompletionException} whose cause is the failure, once
+ * the messages received before it have been returned. Close the iterator to stop early.
+ */
+public final class MessageIterator implements Iterator<Message>, AutoCloseable {
+    static final int DEFAULT_PREFETCH = 64;
+
+    private final int replenish;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private Flow.Subscription subscription;
+    private boolean done;
+    private boolean closed;
+    private Throwable failure;
+    private int consumed;
+
+    MessageIterator(Flow.Publisher<Message> source, int prefetch) {
+        this.replenish = Math.max(1, prefetch / 2);
+        source.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                boolean cancel;
+                lock.lock();
+                try {
+                    subscription = s;
+                    cancel = closed;
+                } finally {
+                    lock.unlock();
+                }
+                if (cancel) {
+                    s.cancel();
+                } else {
+                    s.request(prefetch);
+                }
+            }
+
+            @Override
+            public void onNext(Message item) {
+                lock.lock();
+                try {
+                    if (!closed) {
+                        queue.addLast(item);
+                        changed.signal();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                finish(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                finish(null);
+            }
+        });
+    }
+
+    /**
+     * Waits until a message is available or the stream ends.
+     *
+     * @throws CompletionException if the stream failed or the calling thread was interrupted while waiting
+     */
+    @Override
+    public boolean hasNext() {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !done && !closed) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(new CLIConnectionError("Interrupted while waiting for a message", e));
+                }
+            }
+            if (!queue.isEmpty()) {
+                return true;
+            }
+            if (failure != null && !closed) {
+                throw new CompletionException(failure);
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Message message;
+        Flow.Subscription toRequest = null;
+        lock.lock();
+        try {
+            message = queue.pollFirst();
+            if (++consumed >= replenish && !done) {
+                consumed = 0;
+                toRequest = subscription;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (toRequest != null) {
+            toRequest.request(replenish);
+        }
+        return message;
+    }
+
+    /**
+     * Returns a sequential stream over the remaining messages; closing the stream closes this iterator.
+     */
+    public Stream<Message> stream() {
+        Spliterator<Message> spliterator =
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * Cancels the subscription and discards messages not yet returned.
+     */
+    @Override
+    public void close() {
+        Flow.Subscription toCancel;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.clear();
+            toCancel = subscription;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (toCancel != null) {
+            toCancel.cancel();
+        }
+    }
+
+    private void finish(Throwable error) {
+        lock.lock();
+        try {
+            done = true;
+            failure = error;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
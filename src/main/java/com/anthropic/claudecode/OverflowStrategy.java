@@ -0,0 +1,21 @@
+package com.anthropic.claudecode;
+
+/**
+ * What happens to CLI messages when subscribers fall behind and the message buffer is full.
+ */
+public enum OverflowStrategy {
+    /**
+     * Stop reading the CLI's output until subscribers catch up, which in turn blocks the CLI. While the SDK
+     * waits for a control response, reading continues so the response is not stuck behind unread messages;
+     * messages read meanwhile are parked in a temporary file.
+     */
+    BLOCK,
+    /**
+     * Keep reading and discard the oldest buffered message for every new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Keep reading and park further messages in a temporary file until subscribers catch up.
+     */
+    SPILL_TO_DISK
+}
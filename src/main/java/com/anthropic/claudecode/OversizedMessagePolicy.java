@@ -0,0 +1,15 @@
+package com.anthropic.claudecode;
+
+/**
+ * How the transport handles a CLI message that exceeds the in-memory buffer size.
+ */
+public enum OversizedMessagePolicy {
+    /**
+     * Fail the session with a {@link com.anthropic.claudecode.exceptions.CLIJSONDecodeError}.
+     */
+    FAIL,
+    /**
+     * Continue buffering the message in a temporary file and decode its tool payloads lazily from there.
+     */
+    SPILL_TO_DISK
+}
@@ -0,0 +1,89 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+import com.anthropic.claudecode.internal.Query;
+import com.anthropic.claudecode.transport.LaunchSpec;
+import com.anthropic.claudecode.transport.SubprocessCLITransport;
+import com.anthropic.claudecode.transport.Transport;
+
+/**
+ * A streaming-mode CLI process whose control protocol has already been initialized.
+ */
+final class PooledProcess {
+    private final LaunchSpec key;
+    private final Transport transport;
+    private final Query query;
+    private final long createdAt = System.nanoTime();
+    private int uses;
+    private boolean idle = true;
+
+    private PooledProcess(LaunchSpec key, Transport transport, Query query) {
+        this.key = key;
+        this.transport = transport;
+        this.query = query;
+    }
+
+    static PooledProcess start(LaunchSpec key, ClaudeCodeOptions options) throws ClaudeSDKException {
+        Transport transport = new SubprocessCLITransport(true, null, options);
+        transport.connect();
+        Query query = new Query(transport, true, options);
+        try {
+            query.start();
+            query.initialize();
+        } catch (ClaudeSDKException e) {
+            try {
+                query.close();
+            } catch (ClaudeSDKException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        return new PooledProcess(key, transport, query);
+    }
+
+    LaunchSpec getKey() {
+        return key;
+    }
+
+    Transport getTransport() {
+        return transport;
+    }
+
+    Query getQuery() {
+        return query;
+    }
+
+    long getAgeNanos() {
+        return System.nanoTime() - createdAt;
+    }
+
+    int getUses() {
+        return uses;
+    }
+
+    void markLeased() {
+        uses++;
+    }
+
+    /**
+     * Detaches the previous client from the process. See {@link Query#resetForReuse()}.
+     */
+    void reset() {
+        idle = query.resetForReuse();
+    }
+
+    /**
+     * Returns whether the last {@link #reset()} found nothing left over from the previous client.
+     */
+    boolean isIdle() {
+        return idle;
+    }
+
+    boolean isHealthy() {
+        return transport.isReady() && !query.isClosed();
+    }
+
+    void close() throws ClaudeSDKException {
+        query.close();
+    }
+}
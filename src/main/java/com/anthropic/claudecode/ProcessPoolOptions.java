@@ -0,0 +1,79 @@
+package com.anthropic.claudecode;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Configuration for a {@link ClaudeProcessPool}.
+ */
+public class ProcessPoolOptions {
+    private int minIdle = 1;
+    private int maxUses = 1;
+    private Duration maxAge = Duration.ofMinutes(30);
+    private Duration healthCheckInterval = Duration.ofSeconds(30);
+    private int spawnThreads = 2;
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * Number of ready processes kept per distinct {@link com.anthropic.claudecode.transport.LaunchSpec}.
+     */
+    public ProcessPoolOptions setMinIdle(int minIdle) {
+        if (minIdle < 0) {
+            throw new IllegalArgumentException("minIdle must not be negative");
+        }
+        this.minIdle = minIdle;
+        return this;
+    }
+
+    public int getMaxUses() {
+        return maxUses;
+    }
+
+    /**
+     * Number of leases a process serves before it is recycled. Values above one let later clients continue
+     * the conversation state left behind by earlier ones.
+     */
+    public ProcessPoolOptions setMaxUses(int maxUses) {
+        if (maxUses < 1) {
+            throw new IllegalArgumentException("maxUses must be at least 1");
+        }
+        this.maxUses = maxUses;
+        return this;
+    }
+
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    public ProcessPoolOptions setMaxAge(Duration maxAge) {
+        this.maxAge = Objects.requireNonNull(maxAge, "maxAge");
+        return this;
+    }
+
+    public Duration getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public ProcessPoolOptions setHealthCheckInterval(Duration healthCheckInterval) {
+        this.healthCheckInterval = Objects.requireNonNull(healthCheckInterval, "healthCheckInterval");
+        return this;
+    }
+
+    public int getSpawnThreads() {
+        return spawnThreads;
+    }
+
+    /**
+     * Number of background threads that spawn and initialize replacement processes.
+     */
+    public ProcessPoolOptions setSpawnThreads(int spawnThreads) {
+        if (spawnThreads < 1) {
+            throw new IllegalArgumentException("spawnThreads must be at least 1");
+        }
+        this.spawnThreads = spawnThreads;
+        return this;
+    }
+}
@@ -0,0 +1,97 @@
+package com.anthropic.claudecode;
+
+import com.anthropic.claudecode.messages.Message;
+import com.anthropic.claudecode.messages.ResultMessage;
+
+import java.util.concurrent.Flow;
+
+/**
+ * View of a message stream that ends after the next {@link ResultMessage}.
+ *
+ * <p>Each subscriber is subscribed directly to the source; items, demand and cancellation pass straight
+ * through, with no buffer or thread hand-off of its own. Once the result has been delivered, or the subscriber
+ * cancels, the source subscription is cancelled and released, so a finished or abandoned view holds nothing.
+ */
+final class ResponseView implements Flow.Publisher<Message> {
+    private final Flow.Publisher<Message> source;
+
+    ResponseView(Flow.Publisher<Message> source) {
+        this.source = source;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+        source.subscribe(new Relay(subscriber));
+    }
+
+    private static final class Relay implements Flow.Subscriber<Message>, Flow.Subscription {
+        private final Flow.Subscriber<? super Message> downstream;
+        private volatile Flow.Subscription upstream;
+        private volatile boolean done;
+
+        Relay(Flow.Subscriber<? super Message> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(Message item) {
+            if (done) {
+                return;
+            }
+            boolean last = item instanceof ResultMessage;
+            if (last) {
+                release();
+            }
+            downstream.onNext(item);
+            if (last) {
+                downstream.onComplete();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!done) {
+                done = true;
+                upstream = null;
+                downstream.onError(throwable);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (!done) {
+                done = true;
+                upstream = null;
+                downstream.onComplete();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            Flow.Subscription current = upstream;
+            if (current != null) {
+                current.request(n);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            release();
+        }
+
+        private void release() {
+            done = true;
+            Flow.Subscription current = upstream;
+            upstream = null;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.anthropic.claudecode;
+
+/**
+ * Kind of threads the SDK uses for writing CLI input, delivering messages and handling control requests.
+ */
+public enum ThreadMode {
+    /**
+     * Daemon platform threads.
+     */
+    PLATFORM,
+    /**
+     * Virtual threads, which let a JVM host thousands of sessions. Requires Java 21; older runtimes fall back
+     * to platform threads.
+     *
+     * <p>Reads from process pipes block in the kernel and hold a carrier thread for as long as they wait. The
+     * scheduler adds at most {@code jdk.virtualThreadScheduler.maxPoolSize} carriers (256 by default), so a
+     * blocked reader per stream would starve every virtual thread in the JVM at around a hundred sessions.
+     * This mode therefore reads stdout and stderr on an {@link com.anthropic.claudecode.transport.IoReactor},
+     * {@link com.anthropic.claudecode.transport.IoReactor#shared() the shared one} unless another is
+     * configured.
+     */
+    VIRTUAL
+}
@@ -0,0 +1,145 @@
+package com.anthropic.claudecode.internal;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@code control_request} sent by the CLI, holding only the fields the SDK acts on.
+ */
+final class ControlRequest {
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private String requestId;
+    private String subtype;
+    private String toolName;
+    private Map<String, Object> input;
+    private String callbackId;
+    private String toolUseId;
+    private Map<String, Object> message;
+
+    private ControlRequest() {}
+
+    /**
+     * Reads a control request envelope from a token stream. Returns {@code null} when the envelope carries
+     * no {@code request} object.
+     */
+    static ControlRequest parse(JsonParser parser) throws IOException {
+        if (parser.currentToken() == null) {
+            parser.nextToken();
+        }
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        ControlRequest result = new ControlRequest();
+        boolean hasRequest = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("request_id".equals(field)) {
+                result.requestId = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+            } else if ("request".equals(field) && value == JsonToken.START_OBJECT) {
+                hasRequest = true;
+                result.readRequest(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return hasRequest ? result : null;
+    }
+
+    private void readRequest(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "subtype" -> subtype = readScalar(parser, value);
+                case "tool_name" -> toolName = readScalar(parser, value);
+                case "callback_id" -> callbackId = readScalar(parser, value);
+                case "tool_use_id" -> toolUseId = readScalar(parser, value);
+                case "input" -> input = readMap(parser, value);
+                case "message" -> message = readMap(parser, value);
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Converts a control request envelope that has already been materialized as a map.
+     */
+    static ControlRequest fromMap(Map<String, Object> envelope) {
+        if (!(envelope.get("request") instanceof Map<?, ?> request)) {
+            return null;
+        }
+        ControlRequest result = new ControlRequest();
+        result.requestId = stringOrNull(envelope.get("request_id"));
+        result.subtype = stringOrNull(request.get("subtype"));
+        result.toolName = stringOrNull(request.get("tool_name"));
+        result.callbackId = stringOrNull(request.get("callback_id"));
+        result.toolUseId = stringOrNull(request.get("tool_use_id"));
+        result.input = toMap(request.get("input"));
+        result.message = toMap(request.get("message"));
+        return result;
+    }
+
+    String getRequestId() {
+        return requestId;
+    }
+
+    String getSubtype() {
+        return subtype;
+    }
+
+    String getToolName() {
+        return toolName;
+    }
+
+    Map<String, Object> getInput() {
+        return input;
+    }
+
+    String getCallbackId() {
+        return callbackId;
+    }
+
+    String getToolUseId() {
+        return toolUseId;
+    }
+
+    Map<String, Object> getMessage() {
+        return message;
+    }
+
+    private static String readScalar(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+            return parser.getValueAsString();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static Map<String, Object> readMap(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.START_OBJECT) {
+            return parser.readValueAs(MAP_TYPE);
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static String stringOrNull(Object value) {
+        return value != null ? String.valueOf(value) : null;
+    }
+
+    private static Map<String, Object> toMap(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> converted = new LinkedHashMap<>();
+            map.forEach((k, v) -> converted.put(String.valueOf(k), v));
+            return converted;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,118 @@
+package com.anthropic.claudecode.internal;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@code control_response} sent by the CLI in reply to an SDK-initiated control request.
+ */
+final class ControlResponse {
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private String requestId;
+    private String subtype;
+    private String error;
+    private Map<String, Object> response;
+
+    private ControlResponse() {}
+
+    /**
+     * Reads a control response envelope from a token stream. Returns {@code null} when the envelope carries
+     * no {@code response} object.
+     */
+    static ControlResponse parse(JsonParser parser) throws IOException {
+        if (parser.currentToken() == null) {
+            parser.nextToken();
+        }
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        ControlResponse result = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("response".equals(field) && value == JsonToken.START_OBJECT) {
+                result = new ControlResponse();
+                result.readResponse(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private void readResponse(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "request_id" -> requestId = readScalar(parser, value);
+                case "subtype" -> subtype = readScalar(parser, value);
+                case "error" -> error = readScalar(parser, value);
+                case "response" -> {
+                    if (value == JsonToken.START_OBJECT) {
+                        response = parser.readValueAs(MAP_TYPE);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Converts a control response envelope that has already been materialized as a map.
+     */
+    static ControlResponse fromMap(Map<String, Object> envelope) {
+        if (!(envelope.get("response") instanceof Map<?, ?> body)) {
+            return null;
+        }
+        ControlResponse result = new ControlResponse();
+        result.requestId = stringOrNull(body.get("request_id"));
+        result.subtype = stringOrNull(body.get("subtype"));
+        result.error = stringOrNull(body.get("error"));
+        if (body.get("response") instanceof Map<?, ?> payload) {
+            Map<String, Object> converted = new LinkedHashMap<>();
+            payload.forEach((k, v) -> converted.put(String.valueOf(k), v));
+            result.response = converted;
+        }
+        return result;
+    }
+
+    String getRequestId() {
+        return requestId;
+    }
+
+    boolean isError() {
+        return "error".equals(subtype);
+    }
+
+    String getError() {
+        return error;
+    }
+
+    /**
+     * Returns the response payload, or an empty map when the CLI sent none.
+     */
+    Map<String, Object> getResponse() {
+        return response != null ? response : new LinkedHashMap<>();
+    }
+
+    private static String readScalar(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+            return parser.getValueAsString();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static String stringOrNull(Object value) {
+        return value != null ? String.valueOf(value) : null;
+    }
+}
@@ -0,0 +1,398 @@
+package com.anthropic.claudecode.internal;
+
+import com.anthropic.claudecode.DeliveryMetrics;
+import com.anthropic.claudecode.MessageDispatcher;
+import com.anthropic.claudecode.OverflowStrategy;
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+import com.anthropic.claudecode.messages.Message;
+import com.anthropic.claudecode.transport.JsonFrame;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Multicasts CLI messages to subscribers strictly according to their demand.
+ *
+ * <p>A message is handed out once every subscriber has requested one, so the slowest subscriber sets the pace.
+ * Messages wait in a bounded buffer, which also holds them while nobody is subscribed. When the buffer is full
+ * the {@link OverflowStrategy} decides: {@code BLOCK} asks the producer to pause until the buffer has drained to
+ * half its capacity, {@code DROP_OLDEST} discards the oldest message, and {@code SPILL_TO_DISK} accepts frames
+ * that the producer has parked on disk and parses them only when they are delivered. Under {@code BLOCK}, the
+ * producer may park frames on disk the same way while it has to keep reading past capacity.
+ */
+public final class MessagePublisher implements Flow.Publisher<Message> {
+    private static final Logger LOGGER = Logger.getLogger(MessagePublisher.class.getName());
+
+    /**
+     * Turns a spooled frame into a message at delivery time.
+     */
+    @FunctionalInterface
+    public interface FrameResolver {
+        Message resolve(JsonFrame frame) throws ClaudeSDKException;
+    }
+
+    /**
+     * Receives buffer state changes. Callbacks run without the publisher's lock held.
+     */
+    public interface Listener {
+        void onPause();
+
+        void onResume();
+
+        void onSpoolDrained();
+    }
+
+    private final int capacity;
+    private final OverflowStrategy strategy;
+    private final MessageDispatcher dispatcher;
+    private final DeliveryMetrics metrics;
+    private final FrameResolver resolver;
+    private final Listener listener;
+
+    private final Deque<Entry> buffer = new ArrayDeque<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final List<Subscription> retired = new ArrayList<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private int spooled;
+    private boolean paused;
+    private boolean done;
+    private Throwable failure;
+
+    MessagePublisher(int capacity,
+                     OverflowStrategy strategy,
+                     MessageDispatcher dispatcher,
+                     FrameResolver resolver,
+                     Listener listener) {
+        this(capacity, strategy, dispatcher, dispatcher.getMetrics(), resolver, listener);
+    }
+
+    /**
+     * Creates a publisher that records delivery latency in {@code metrics}, or nowhere if it is {@code null}.
+     */
+    public MessagePublisher(int capacity,
+                            OverflowStrategy strategy,
+                            MessageDispatcher dispatcher,
+                            DeliveryMetrics metrics,
+                            FrameResolver resolver,
+                            Listener listener) {
+        this.capacity = capacity;
+        this.strategy = strategy;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+        this.resolver = resolver;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns whether the next message should be spooled to disk rather than buffered in memory. Once one
+     * message is spooled, all following ones are too until the spool drains, which keeps messages in order.
+     *
+     * @param forced whether the producer is reading past capacity on purpose, which spools under {@code BLOCK}
+     */
+    synchronized boolean shouldSpool(boolean forced) {
+        if (done || strategy == OverflowStrategy.DROP_OLDEST) {
+            return false;
+        }
+        boolean full = buffer.size() >= capacity && (forced || strategy == OverflowStrategy.SPILL_TO_DISK);
+        return spooled > 0 || full;
+    }
+
+    public void submit(Message message) {
+        enqueue(message, false);
+    }
+
+    /**
+     * Buffers a frame that was parked on disk, to be parsed when it is delivered.
+     */
+    void submitSpooled(JsonFrame frame) {
+        enqueue(frame, true);
+    }
+
+    private void enqueue(Object item, boolean spool) {
+        boolean pause = false;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            buffer.addLast(new Entry(item, System.nanoTime()));
+            if (spool) {
+                spooled++;
+            }
+            if (buffer.size() > capacity && strategy == OverflowStrategy.DROP_OLDEST) {
+                buffer.pollFirst();
+                dropped.incrementAndGet();
+            } else if (buffer.size() >= capacity && strategy == OverflowStrategy.BLOCK && !paused) {
+                paused = true;
+                pause = true;
+            }
+        }
+        if (pause) {
+            listener.onPause();
+        }
+        signal();
+    }
+
+    /**
+     * Completes subscribers once the buffered messages have been delivered.
+     */
+    public void close() {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+        }
+        signal();
+    }
+
+    /**
+     * Discards buffered messages and fails subscribers with {@code error}. After {@link #close()}, the messages
+     * it accepted are still delivered in order and the failure follows them.
+     */
+    public void closeExceptionally(Throwable error) {
+        boolean resume = false;
+        boolean spoolDrained = false;
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = error;
+            if (!done) {
+                done = true;
+                resume = paused;
+                spoolDrained = spooled > 0;
+                discardBuffer();
+            }
+        }
+        notifyDiscarded(resume, spoolDrained);
+        signal();
+    }
+
+    /**
+     * Completes the current subscribers and discards buffered messages, so that the publisher can serve a new
+     * set of subscribers. Returns whether it was idle, meaning open with nothing buffered.
+     */
+    boolean reset() {
+        boolean idle;
+        boolean resume;
+        boolean spoolDrained;
+        synchronized (this) {
+            idle = !done && buffer.isEmpty();
+            resume = paused;
+            spoolDrained = spooled > 0;
+            discardBuffer();
+            // Completed by the drain loop, so that onComplete cannot overlap a delivery still in progress.
+            retired.addAll(subscriptions);
+            subscriptions.clear();
+        }
+        notifyDiscarded(resume, spoolDrained);
+        signal();
+        return idle;
+    }
+
+    public synchronized boolean isClosed() {
+        return done;
+    }
+
+    /**
+     * Returns whether the producer has been asked to pause and not yet to resume.
+     */
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    synchronized int getBufferedCount() {
+        return buffer.size();
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        signal();
+    }
+
+    private void signal() {
+        if (wip.getAndIncrement() == 0) {
+            dispatcher.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        do {
+            completeRetired();
+            deliverAvailable();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void deliverAvailable() {
+        while (true) {
+            Entry entry;
+            boolean resume = false;
+            boolean spoolDrained = false;
+            List<Subscription> targets;
+            Throwable error = null;
+            synchronized (this) {
+                subscriptions.removeIf(subscription -> subscription.cancelled);
+                if (buffer.isEmpty()) {
+                    if (!done) {
+                        return;
+                    }
+                    targets = new ArrayList<>(subscriptions);
+                    subscriptions.clear();
+                    error = failure;
+                    entry = null;
+                } else {
+                    targets = new ArrayList<>(subscriptions);
+                    if (targets.isEmpty()) {
+                        return;
+                    }
+                    for (Subscription subscription : targets) {
+                        if (subscription.demand.get() == 0) {
+                            return;
+                        }
+                    }
+                    entry = buffer.pollFirst();
+                    if (entry.item instanceof JsonFrame && --spooled == 0) {
+                        spoolDrained = true;
+                    }
+                    if (paused && buffer.size() <= capacity / 2) {
+                        paused = false;
+                        resume = true;
+                    }
+                }
+            }
+            if (entry == null) {
+                // Subscribers run user code on completion, so they are terminated without the lock held.
+                for (Subscription subscription : targets) {
+                    subscription.terminate(error);
+                }
+                return;
+            }
+            if (resume) {
+                listener.onResume();
+            }
+            if (spoolDrained) {
+                listener.onSpoolDrained();
+            }
+            Message message;
+            try {
+                message = entry.item instanceof JsonFrame frame ? resolver.resolve(frame) : (Message) entry.item;
+            } catch (ClaudeSDKException | RuntimeException e) {
+                closeExceptionally(e);
+                continue;
+            }
+            if (metrics != null) {
+                metrics.record(System.nanoTime() - entry.enqueuedAt);
+            }
+            for (Subscription subscription : targets) {
+                subscription.deliver(message);
+            }
+        }
+    }
+
+    private void completeRetired() {
+        List<Subscription> targets;
+        synchronized (this) {
+            if (retired.isEmpty()) {
+                return;
+            }
+            targets = new ArrayList<>(retired);
+            retired.clear();
+        }
+        for (Subscription subscription : targets) {
+            subscription.terminate(null);
+        }
+    }
+
+    private void discardBuffer() {
+        buffer.clear();
+        spooled = 0;
+        paused = false;
+    }
+
+    /**
+     * Tells the listener about a discarded buffer. Called after the lock is released.
+     */
+    private void notifyDiscarded(boolean resume, boolean spoolDrained) {
+        if (resume) {
+            listener.onResume();
+        }
+        if (spoolDrained) {
+            listener.onSpoolDrained();
+        }
+    }
+
+    private record Entry(Object item, long enqueuedAt) {
+    }
+
+    private final class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Message> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private volatile boolean cancelled;
+
+        Subscription(Flow.Subscriber<? super Message> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("request must be positive: " + n));
+                return;
+            }
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            // A cancelled subscriber no longer holds back the others.
+            signal();
+        }
+
+        void deliver(Message message) {
+            if (cancelled) {
+                return;
+            }
+            demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+            try {
+                subscriber.onNext(message);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Subscriber failed in onNext; cancelling its subscription", e);
+                cancelled = true;
+                subscriber.onError(e);
+            }
+        }
+
+        void terminate(Throwable error) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -1,39 +1,52 @@
 package com.anthropic.claudecode.internal;
 
 import com.anthropic.claudecode.CanUseTool;
+import com.anthropic.claudecode.ClaudeCodeOptions;
+import com.anthropic.claudecode.ControlExecutor;
 import com.anthropic.claudecode.HookCallback;
 import com.anthropic.claudecode.HookContext;
 import com.anthropic.claudecode.HookEvent;
 import com.anthropic.claudecode.HookMatcher;
+import com.anthropic.claudecode.JsonCodec;
+import com.anthropic.claudecode.DeliveryMetrics;
+import com.anthropic.claudecode.MessageDispatcher;
 import com.anthropic.claudecode.PermissionResultAllow;
 import com.anthropic.claudecode.PermissionResultDeny;
 import com.anthropic.claudecode.ToolPermissionContext;
 import com.anthropic.claudecode.exceptions.CLIConnectionError;
+import com.anthropic.claudecode.exceptions.CLIJSONDecodeError;
 import com.anthropic.claudecode.exceptions.ClaudeSDKException;
 import com.anthropic.claudecode.messages.Message;
 import com.anthropic.claudecode.messages.MessageParser;
+import com.anthropic.claudecode.transport.FrameSpool;
+import com.anthropic.claudecode.transport.JsonFrame;
 import com.anthropic.claudecode.transport.Transport;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Flow;
-import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -41,19 +54,23 @@ import java.util.logging.Logger;
  */
 public class Query implements AutoCloseable {
     private static final Duration CONTROL_TIMEOUT = Duration.ofSeconds(60);
+    // Input messages requested from a stream but not yet written into the stdin buffer.
+    private static final int INPUT_WINDOW = 16;
     private static final Logger LOGGER = Logger.getLogger(Query.class.getName());
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
 
     private final Transport transport;
     private final boolean streamingMode;
     private final CanUseTool canUseTool;
     private final Map<HookEvent, List<HookMatcher>> hookConfig;
-    private final ObjectMapper mapper = new ObjectMapper();
-    private final SubmissionPublisher<Message> publisher = new SubmissionPublisher<>();
-    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
-        Thread thread = new Thread(r, "claude-query");
-        thread.setDaemon(true);
-        return thread;
-    });
+    private final MessagePublisher publisher;
+    private final MessageDispatcher dispatcher;
+    private final DeliveryMetrics deliveryMetrics;
+    private final FrameSpool spool;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final Executor callbackExecutor;
+    private final ThreadFactory rejectionThreads;
 
     private final Map<String, CompletableFuture<Map<String, Object>>> pendingControlResponses =
             new ConcurrentHashMap<>();
@@ -61,16 +78,68 @@ public class Query implements AutoCloseable {
     private final AtomicInteger nextCallbackId = new AtomicInteger();
     private final AtomicInteger requestCounter = new AtomicInteger();
     private final AtomicBoolean closed = new AtomicBoolean();
+    private final Set<Flow.Subscription> inputSubscriptions = ConcurrentHashMap.newKeySet();
+    private volatile boolean inputEnded;
+    private volatile Throwable transportFailure;
+    private final Object readGate = new Object();
+    private boolean deliveryPaused;
+    private boolean readingPaused;
     private Map<String, Object> initializationResult;
 
     public Query(Transport transport,
                  boolean streamingMode,
                  CanUseTool canUseTool,
                  Map<HookEvent, List<HookMatcher>> hookConfig) {
+        this(transport, streamingMode, new ClaudeCodeOptions()
+                .setCanUseTool(canUseTool)
+                .setHooks(hookConfig));
+    }
+
+    /**
+     * Creates a query configured from {@code options}: callbacks and hooks, the control
+     * executor, the message dispatcher and how many messages may wait for slow subscribers.
+     */
+    public Query(Transport transport, boolean streamingMode, ClaudeCodeOptions options) {
         this.transport = transport;
         this.streamingMode = streamingMode;
-        this.canUseTool = canUseTool;
-        this.hookConfig = hookConfig != null ? hookConfig : Collections.emptyMap();
+        this.canUseTool = options.getCanUseTool();
+        this.hookConfig = options.getHooks() != null ? options.getHooks() : Collections.emptyMap();
+        this.executor = ControlExecutor.forOptions(options);
+        this.ownsExecutor = options.getControlExecutor() == null;
+        // A continuation that cannot be queued runs on the completing thread, so the CLI still gets its answer.
+        this.callbackExecutor = command -> {
+            try {
+                this.executor.execute(command);
+            } catch (RejectedExecutionException e) {
+                command.run();
+            }
+        };
+        this.rejectionThreads = ThreadSupport.threadFactory("claude-control-rejection", options.getThreadMode());
+        this.spool = new FrameSpool(JsonCodec.forOptions(options), options.getSpillDirectory());
+        this.dispatcher = MessageDispatcher.forOptions(options);
+        this.deliveryMetrics = dispatcher.newClientMetrics();
+        this.publisher = new MessagePublisher(
+                options.getMessageBufferSize(),
+                options.getOverflowStrategy(),
+                dispatcher,
+                deliveryMetrics,
+                Query::parseSpooled,
+                new MessagePublisher.Listener() {
+                    @Override
+                    public void onPause() {
+                        setDeliveryPaused(true);
+                    }
+
+                    @Override
+                    public void onResume() {
+                        setDeliveryPaused(false);
+                    }
+
+                    @Override
+                    public void onSpoolDrained() {
+                        spool.rotate();
+                    }
+                });
     }
 
     public void start() {
@@ -80,26 +149,111 @@ public class Query implements AutoCloseable {
                 handleMessage(message);
             }
 
+            @Override
+            public void onFrame(JsonFrame frame) {
+                handleFrame(frame);
+            }
+
             @Override
             public void onError(Throwable error) {
+                failPendingControlRequests(error instanceof ClaudeSDKException
+                        ? error
+                        : new CLIConnectionError("Transport failed", error));
                 publisher.closeExceptionally(error);
             }
 
             @Override
             public void onClosed() {
+                failPendingControlRequests(new CLIConnectionError("CLI process closed its output"));
                 publisher.close();
             }
         });
     }
 
+    private void handleFrame(JsonFrame frame) {
+        String type = frame.getType();
+        try (JsonParser parser = frame.open()) {
+            // Control traffic bypasses the message buffer, so it is dispatched whatever the subscribers' demand.
+            if ("control_response".equals(type)) {
+                handleControlResponse(ControlResponse.parse(parser));
+                return;
+            }
+            if ("control_request".equals(type)) {
+                ControlRequest request = ControlRequest.parse(parser);
+                dispatchControlRequest(request);
+                return;
+            }
+            if ("control_cancel_request".equals(type)) {
+                LOGGER.fine("Received control_cancel_request which is not yet supported");
+                return;
+            }
+            if (publisher.shouldSpool(isReadingForced())) {
+                publisher.submitSpooled(spool.append(frame));
+                return;
+            }
+            // Spilled messages are too large to materialize, so their tool payloads always stay on disk and
+            // parse errors do not carry them.
+            MessageParser.PayloadSource payload = frame.isSpilled() ? null : frame::toMap;
+            publisher.submit(MessageParser.parseMessage(type, parser, payload));
+        } catch (ClaudeSDKException e) {
+            publisher.closeExceptionally(e);
+        } catch (IOException e) {
+            publisher.closeExceptionally(new CLIJSONDecodeError("Failed to decode " + type + " message", e));
+        }
+    }
+
+    private void setDeliveryPaused(boolean paused) {
+        synchronized (readGate) {
+            deliveryPaused = paused;
+        }
+        updateReading();
+    }
+
+    /**
+     * Pauses reading while subscribers are saturated, except while a control response is awaited: control
+     * traffic shares the CLI's output with data messages, so it must keep flowing regardless of their demand.
+     */
+    private void updateReading() {
+        synchronized (readGate) {
+            boolean pause = deliveryPaused && pendingControlResponses.isEmpty();
+            if (pause == readingPaused) {
+                return;
+            }
+            readingPaused = pause;
+            if (pause) {
+                transport.pauseReading();
+            } else {
+                transport.resumeReading();
+            }
+        }
+    }
+
+    /**
+     * Returns whether output is being read only because a control response is awaited.
+     */
+    private boolean isReadingForced() {
+        synchronized (readGate) {
+            return deliveryPaused && !readingPaused;
+        }
+    }
+
+    private static Message parseSpooled(JsonFrame frame) throws ClaudeSDKException {
+        try (JsonParser parser = frame.open()) {
+            MessageParser.PayloadSource payload = frame.isSpilled() ? null : frame::toMap;
+            return MessageParser.parseMessage(frame.getType(), parser, payload);
+        } catch (IOException e) {
+            throw new CLIJSONDecodeError("Failed to decode spooled " + frame.getType() + " message", e);
+        }
+    }
+
     private void handleMessage(Map<String, Object> message) {
         String type = String.valueOf(message.get("type"));
         if ("control_response".equals(type)) {
-            handleControlResponse(message);
+            handleControlResponse(ControlResponse.fromMap(message));
             return;
         }
         if ("control_request".equals(type)) {
-            executor.submit(() -> handleControlRequest(message));
+            dispatchControlRequest(ControlRequest.fromMap(message));
             return;
         }
         if ("control_cancel_request".equals(type)) {
@@ -114,59 +268,63 @@ public class Query implements AutoCloseable {
         }
     }
 
-    private void handleControlResponse(Map<String, Object> message) {
-        Object responseObj = message.get("response");
-        if (!(responseObj instanceof Map<?, ?> response)) {
+    private void handleControlResponse(ControlResponse response) {
+        if (response == null) {
             return;
         }
-        String requestId = String.valueOf(response.get("request_id"));
-        CompletableFuture<Map<String, Object>> future = pendingControlResponses.remove(requestId);
+        CompletableFuture<Map<String, Object>> future =
+                pendingControlResponses.remove(String.valueOf(response.getRequestId()));
         if (future == null) {
             return;
         }
-        String subtype = String.valueOf(response.get("subtype"));
-        if ("error".equals(subtype)) {
-            future.completeExceptionally(new CLIConnectionError(String.valueOf(response.get("error"))));
+        if (response.isError()) {
+            future.completeExceptionally(new CLIConnectionError(String.valueOf(response.getError())));
         } else {
-            Object payload = response.get("response");
-            if (payload instanceof Map<?, ?> map) {
-                Map<String, Object> converted = new LinkedHashMap<>();
-                map.forEach((k, v) -> converted.put(String.valueOf(k), v));
-                future.complete(converted);
-            } else {
-                future.complete(new LinkedHashMap<>());
+            future.complete(response.getResponse());
+        }
+    }
+
+    private void dispatchControlRequest(ControlRequest request) {
+        try {
+            executor.execute(() -> handleControlRequest(request));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warning("Rejected control request because the control executor is saturated");
+            if (request != null) {
+                // Writing may wait for room in the stdin queue, which must not hold up the reading thread.
+                rejectionThreads.newThread(
+                        () -> sendErrorResponse(request, "Control request rejected: SDK executor is saturated"))
+                        .start();
             }
         }
     }
 
-    private void handleControlRequest(Map<String, Object> message) {
-        Map<String, Object> request = toMap(message.get("request"));
+    private void handleControlRequest(ControlRequest request) {
         if (request == null) {
             return;
         }
-        String subtype = String.valueOf(request.get("subtype"));
+        String subtype = String.valueOf(request.getSubtype());
         switch (subtype) {
-            case "can_use_tool" -> handleCanUseTool(message, request);
-            case "hook_callback" -> handleHookCallback(message, request);
-            case "mcp_message" -> handleMcpMessage(message, request);
-            default -> sendErrorResponse(message, "Unsupported control request subtype: " + subtype);
+            case "can_use_tool" -> handleCanUseTool(request);
+            case "hook_callback" -> handleHookCallback(request);
+            case "mcp_message" -> handleMcpMessage(request);
+            default -> sendErrorResponse(request, "Unsupported control request subtype: " + subtype);
         }
     }
 
-    private void handleCanUseTool(Map<String, Object> envelope, Map<String, Object> request) {
+    private void handleCanUseTool(ControlRequest request) {
         if (canUseTool == null) {
-            sendErrorResponse(envelope, "canUseTool callback is not provided");
+            sendErrorResponse(request, "canUseTool callback is not provided");
             return;
         }
-        String toolName = String.valueOf(request.get("tool_name"));
-        Map<String, Object> input = toMap(request.get("input"));
+        String toolName = String.valueOf(request.getToolName());
+        Map<String, Object> input = request.getInput();
         ToolPermissionContext context = new ToolPermissionContext();
         context.setSuggestions(new ArrayList<>());
         canUseTool.apply(toolName, input != null ? input : Collections.emptyMap(), context)
                 .toCompletableFuture()
                 .whenCompleteAsync((result, error) -> {
                     if (error != null) {
-                        sendErrorResponse(envelope, error.getMessage());
+                        sendErrorResponse(request, error.getMessage());
                         return;
                     }
                     if (result instanceof PermissionResultAllow allow) {
@@ -175,7 +333,7 @@ public class Query implements AutoCloseable {
                         if (allow.getUpdatedInput() != null) {
                             responseData.put("input", allow.getUpdatedInput());
                         }
-                        sendSuccessResponse(envelope, responseData);
+                        sendSuccessResponse(request, responseData);
                     } else if (result instanceof PermissionResultDeny deny) {
                         Map<String, Object> responseData = new LinkedHashMap<>();
                         responseData.put("allow", false);
@@ -183,27 +341,26 @@ public class Query implements AutoCloseable {
                         if (deny.isInterrupt()) {
                             responseData.put("interrupt", true);
                         }
-                        sendSuccessResponse(envelope, responseData);
+                        sendSuccessResponse(request, responseData);
                     } else {
-                        sendErrorResponse(envelope, "Invalid PermissionResult type");
+                        sendErrorResponse(request, "Invalid PermissionResult type");
                     }
-                }, executor);
+                }, callbackExecutor);
     }
 
-    private void handleHookCallback(Map<String, Object> envelope, Map<String, Object> request) {
-        String callbackId = String.valueOf(request.get("callback_id"));
+    private void handleHookCallback(ControlRequest request) {
+        String callbackId = String.valueOf(request.getCallbackId());
         HookCallback callback = hookCallbacks.get(callbackId);
         if (callback == null) {
-            sendErrorResponse(envelope, "No hook callback found for ID: " + callbackId);
+            sendErrorResponse(request, "No hook callback found for ID: " + callbackId);
             return;
         }
-        Map<String, Object> input = toMap(request.get("input"));
-        String toolUseId = request.get("tool_use_id") != null ? String.valueOf(request.get("tool_use_id")) : null;
-        callback.apply(input != null ? input : Collections.emptyMap(), toolUseId, new HookContext())
+        Map<String, Object> input = request.getInput();
+        callback.apply(input != null ? input : Collections.emptyMap(), request.getToolUseId(), new HookContext())
                 .toCompletableFuture()
                 .whenCompleteAsync((output, error) -> {
                     if (error != null) {
-                        sendErrorResponse(envelope, error.getMessage());
+                        sendErrorResponse(request, error.getMessage());
                         return;
                     }
                     Map<String, Object> response = new LinkedHashMap<>();
@@ -216,12 +373,12 @@ public class Query implements AutoCloseable {
                     if (output.getHookSpecificOutput() != null) {
                         response.put("hookSpecificOutput", output.getHookSpecificOutput());
                     }
-                    sendSuccessResponse(envelope, response);
-                }, executor);
+                    sendSuccessResponse(request, response);
+                }, callbackExecutor);
     }
 
-    private void handleMcpMessage(Map<String, Object> envelope, Map<String, Object> request) {
-        Map<String, Object> message = toMap(request.get("message"));
+    private void handleMcpMessage(ControlRequest request) {
+        Map<String, Object> message = request.getMessage();
         Map<String, Object> response = new LinkedHashMap<>();
         response.put("jsonrpc", "2.0");
         response.put("id", message != null ? message.get("id") : null);
@@ -229,26 +386,37 @@ public class Query implements AutoCloseable {
         error.put("code", -32601);
         error.put("message", "SDK MCP servers are not supported in the Java SDK yet.");
         response.put("error", error);
-        sendSuccessResponse(envelope, Map.of("mcp_response", response));
+        sendSuccessResponse(request, Map.of("mcp_response", response));
     }
 
-    private void sendSuccessResponse(Map<String, Object> envelope, Map<String, Object> responseData) {
+    private void sendSuccessResponse(ControlRequest request, Map<String, Object> responseData) {
         Map<String, Object> response = new LinkedHashMap<>();
         response.put("type", "control_response");
         Map<String, Object> payload = new LinkedHashMap<>();
         payload.put("subtype", "success");
-        payload.put("request_id", envelope.get("request_id"));
+        payload.put("request_id", request.getRequestId());
         payload.put("response", responseData);
         response.put("response", payload);
-        sendRaw(response);
+        // A handler result that cannot be encoded must still be answered, or the CLI waits for it forever.
+        transport.writeMessageAsync(response).whenComplete((ignored, error) -> {
+            if (error == null) {
+                return;
+            }
+            if (error.getCause() instanceof JsonProcessingException) {
+                LOGGER.log(Level.WARNING, "Failed to encode control response", error);
+                sendErrorResponse(request, "Failed to encode control response: " + error.getCause().getMessage());
+            } else {
+                publisher.closeExceptionally(error);
+            }
+        });
     }
 
-    private void sendErrorResponse(Map<String, Object> envelope, String error) {
+    private void sendErrorResponse(ControlRequest request, String error) {
         Map<String, Object> response = new LinkedHashMap<>();
         response.put("type", "control_response");
         Map<String, Object> payload = new LinkedHashMap<>();
         payload.put("subtype", "error");
-        payload.put("request_id", envelope.get("request_id"));
+        payload.put("request_id", request.getRequestId());
         payload.put("error", error);
         response.put("response", payload);
         sendRaw(response);
@@ -256,8 +424,8 @@ public class Query implements AutoCloseable {
 
     private void sendRaw(Map<String, Object> data) {
         try {
-            transport.write(mapper.writeValueAsString(data) + "\n");
-        } catch (ClaudeSDKException | JsonProcessingException e) {
+            transport.writeMessage(data);
+        } catch (ClaudeSDKException e) {
             publisher.closeExceptionally(e);
         }
     }
@@ -266,6 +434,16 @@ public class Query implements AutoCloseable {
         if (!streamingMode) {
             return null;
         }
+        return await(initializeAsync());
+    }
+
+    /**
+     * Sends the {@code initialize} request without blocking. Completes with {@code null} outside streaming mode.
+     */
+    public CompletableFuture<Map<String, Object>> initializeAsync() {
+        if (!streamingMode) {
+            return CompletableFuture.completedFuture(null);
+        }
         Map<String, Object> hooksPayload = new LinkedHashMap<>();
         hookConfig.forEach((event, matchers) -> {
             List<Map<String, Object>> matcherConfigs = new ArrayList<>();
@@ -290,59 +468,180 @@ public class Query implements AutoCloseable {
         if (!hooksPayload.isEmpty()) {
             request.put("hooks", hooksPayload);
         }
-        Map<String, Object> response = sendControlRequest(request);
-        initializationResult = response;
-        return response;
+        return sendControlRequestAsync(request).thenApply(response -> {
+            initializationResult = response;
+            return response;
+        });
     }
 
-    public SubmissionPublisher<Message> getPublisher() {
+    /**
+     * Returns the CLI's messages. Each message is delivered once every subscriber has requested it, and
+     * messages arriving while nobody is subscribed are kept for the next subscriber, up to the configured
+     * message buffer size.
+     */
+    public Flow.Publisher<Message> getPublisher() {
         return publisher;
     }
 
+    /**
+     * Returns the dispatcher that delivers this query's messages, which may be shared with other queries.
+     */
+    public MessageDispatcher getMessageDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the delivery latency of this query's messages alone.
+     */
+    public DeliveryMetrics getDeliveryMetrics() {
+        return deliveryMetrics;
+    }
+
+    /**
+     * Returns the number of messages waiting for subscribers, including messages spooled to disk.
+     */
+    public int getBufferedMessageCount() {
+        return publisher.getBufferedCount();
+    }
+
+    /**
+     * Returns the number of messages discarded under {@link com.anthropic.claudecode.OverflowStrategy#DROP_OLDEST}.
+     */
+    public long getDroppedMessageCount() {
+        return publisher.getDroppedCount();
+    }
+
     public Map<String, Object> getInitializationResult() {
         return initializationResult;
     }
 
+    /**
+     * Returns whether this query was closed or its message stream has terminated.
+     */
+    public boolean isClosed() {
+        return closed.get() || publisher.isClosed();
+    }
+
     public Map<String, Object> sendControlRequest(Map<String, Object> request) throws ClaudeSDKException {
+        return await(sendControlRequestAsync(request));
+    }
+
+    /**
+     * Sends a control request and returns a future for the CLI's response, without blocking the caller.
+     *
+     * <p>The future fails with {@link CLIConnectionError} when the request cannot be written, the CLI reports
+     * an error, or no response arrives within the control timeout. Cancelling the future abandons the request.
+     * The future is completed on the transport's reader thread, so long-running continuations should use the
+     * async variants of the completion stage methods.
+     */
+    public CompletableFuture<Map<String, Object>> sendControlRequestAsync(Map<String, Object> request) {
         if (!streamingMode) {
-            throw new CLIConnectionError("Control requests require streaming mode");
+            return CompletableFuture.failedFuture(new CLIConnectionError("Control requests require streaming mode"));
+        }
+        Throwable failure = transportFailure;
+        if (failure != null) {
+            return CompletableFuture.failedFuture(failure);
+        }
+        if (!transport.isReady()) {
+            return CompletableFuture.failedFuture(new CLIConnectionError("Transport is not ready"));
         }
         String requestId = "req_" + requestCounter.incrementAndGet() + "_" + UUID.randomUUID();
         CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
         pendingControlResponses.put(requestId, future);
+        updateReading();
+        // The transport may have failed after the check above but before the request was registered.
+        failure = transportFailure;
+        if (failure != null) {
+            future.completeExceptionally(failure);
+            return future;
+        }
+        ScheduledFuture<?> timeout = TIMER.schedule(
+                () -> future.completeExceptionally(new CLIConnectionError(
+                        "Control request timeout: " + request.getOrDefault("subtype", "unknown"),
+                        new TimeoutException())),
+                CONTROL_TIMEOUT.toMillis(),
+                TimeUnit.MILLISECONDS);
+        future.whenComplete((response, error) -> {
+            timeout.cancel(false);
+            pendingControlResponses.remove(requestId, future);
+            updateReading();
+        });
         Map<String, Object> envelope = new LinkedHashMap<>();
         envelope.put("type", "control_request");
         envelope.put("request_id", requestId);
         envelope.put("request", request);
-        try {
-            transport.write(mapper.writeValueAsString(envelope) + "\n");
-        } catch (ClaudeSDKException | JsonProcessingException e) {
-            pendingControlResponses.remove(requestId);
-            throw new CLIConnectionError("Failed to send control request", e);
-        }
-        try {
-            return future.get(CONTROL_TIMEOUT.toSeconds(), TimeUnit.SECONDS);
-        } catch (TimeoutException e) {
-            pendingControlResponses.remove(requestId);
-            throw new CLIConnectionError(
-                    "Control request timeout: " + request.getOrDefault("subtype", "unknown"), e);
-        } catch (Exception e) {
-            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
-            if (cause instanceof ClaudeSDKException ce) {
-                throw ce;
+        transport.writeMessageAsync(envelope).whenComplete((ignored, error) -> {
+            if (error != null) {
+                future.completeExceptionally(new CLIConnectionError("Failed to send control request", error));
             }
-            throw new CLIConnectionError("Control request failed", cause);
-        }
+        });
+        return future;
     }
 
     public void interrupt() throws ClaudeSDKException {
-        sendControlRequest(Map.of("subtype", "interrupt"));
+        await(interruptAsync());
+    }
+
+    public CompletableFuture<Void> interruptAsync() {
+        return sendControlRequestAsync(Map.of("subtype", "interrupt")).thenApply(response -> null);
     }
 
     public void setPermissionMode(String mode) throws ClaudeSDKException {
-        sendControlRequest(Map.of("subtype", "set_permission_mode", "mode", mode));
+        await(setPermissionModeAsync(mode));
     }
 
+    public CompletableFuture<Void> setPermissionModeAsync(String mode) {
+        return sendControlRequestAsync(Map.of("subtype", "set_permission_mode", "mode", mode))
+                .thenApply(response -> null);
+    }
+
+    /**
+     * Fails every outstanding control request with {@code failure} and makes new requests fail immediately.
+     * The first failure wins, so a ProcessError reported by the transport is what callers see.
+     */
+    private void failPendingControlRequests(Throwable failure) {
+        if (transportFailure == null) {
+            transportFailure = failure;
+        }
+        Throwable reported = transportFailure;
+        for (CompletableFuture<Map<String, Object>> future : pendingControlResponses.values()) {
+            future.completeExceptionally(reported);
+        }
+    }
+
+    /**
+     * Creates the timer shared by all queries for control request timeouts. Answered requests cancel their
+     * timeout, so cancelled tasks are removed right away rather than lingering until they would have fired.
+     */
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "claude-control-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws ClaudeSDKException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new CLIConnectionError("Interrupted while waiting for control response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ClaudeSDKException ce) {
+                throw ce;
+            }
+            throw new CLIConnectionError("Control request failed", e.getCause());
+        }
+    }
+
+    /**
+     * Writes the messages of {@code stream} to the CLI, requesting more only as earlier ones are written, so a
+     * fast publisher is held back by stdin rather than queued without bound.
+     */
     public CompletableFuture<Void> streamInput(Flow.Publisher<Map<String, Object>> stream) {
         CompletableFuture<Void> result = new CompletableFuture<>();
         stream.subscribe(new Flow.Subscriber<>() {
@@ -351,28 +650,34 @@ public class Query implements AutoCloseable {
             @Override
             public void onSubscribe(Flow.Subscription subscription) {
                 this.subscription = subscription;
-                subscription.request(Long.MAX_VALUE);
+                inputSubscriptions.add(subscription);
+                subscription.request(INPUT_WINDOW);
             }
 
             @Override
             public void onNext(Map<String, Object> item) {
-                try {
-                    transport.write(mapper.writeValueAsString(item) + "\n");
-                } catch (ClaudeSDKException | JsonProcessingException e) {
-                    if (subscription != null) {
+                // Off the writer thread, since requesting more may run onNext and queue the next message there.
+                transport.writeMessageAsync(item).whenCompleteAsync((ignored, error) -> {
+                    if (error == null) {
+                        subscription.request(1);
+                    } else {
                         subscription.cancel();
+                        inputSubscriptions.remove(subscription);
+                        result.completeExceptionally(error);
                     }
-                    result.completeExceptionally(e);
-                }
+                }, callbackExecutor);
             }
 
             @Override
             public void onError(Throwable throwable) {
+                inputSubscriptions.remove(subscription);
                 result.completeExceptionally(throwable);
             }
 
             @Override
             public void onComplete() {
+                inputSubscriptions.remove(subscription);
+                inputEnded = true;
                 try {
                     transport.endInput();
                     result.complete(null);
@@ -384,21 +689,30 @@ public class Query implements AutoCloseable {
         return result;
     }
 
+    /**
+     * Prepares the query for another client: cancels the input streams and completes the message subscribers
+     * of the previous one, and discards messages it did not receive. Returns whether the query was idle, with
+     * no undelivered messages or pending control requests and input still open, and so can be reused.
+     */
+    public boolean resetForReuse() {
+        for (Flow.Subscription subscription : inputSubscriptions) {
+            inputSubscriptions.remove(subscription);
+            subscription.cancel();
+        }
+        boolean idle = pendingControlResponses.isEmpty() && !inputEnded && !closed.get();
+        return publisher.reset() && idle;
+    }
+
     @Override
     public void close() throws ClaudeSDKException {
         if (closed.compareAndSet(false, true)) {
+            failPendingControlRequests(new CLIConnectionError("Query is closed"));
             publisher.close();
-            executor.shutdownNow();
+            spool.close();
+            if (ownsExecutor) {
+                ((ControlExecutor) executor).close();
+            }
             transport.close();
         }
     }
-
-    private Map<String, Object> toMap(Object value) {
-        if (value instanceof Map<?, ?> map) {
-            Map<String, Object> converted = new LinkedHashMap<>();
-            map.forEach((k, v) -> converted.put(String.valueOf(k), v));
-            return converted;
-        }
-        return null;
-    }
 }
@@ -0,0 +1,63 @@
+package com.anthropic.claudecode.internal;
+
+import com.anthropic.claudecode.ThreadMode;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Creates the threads used by the SDK, including virtual threads when the runtime provides them.
+ */
+public final class ThreadSupport {
+    private static final Logger LOGGER = Logger.getLogger(ThreadSupport.class.getName());
+    private static final AtomicBoolean FALLBACK_LOGGED = new AtomicBoolean();
+
+    private ThreadSupport() {}
+
+    /**
+     * Returns whether the running JVM supports virtual threads.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    /**
+     * Returns a factory for threads of the given mode, falling back to platform threads when virtual threads
+     * are unavailable.
+     */
+    public static ThreadFactory threadFactory(String name, ThreadMode mode) {
+        if (mode == ThreadMode.VIRTUAL) {
+            if (VirtualThreads.isSupported()) {
+                return VirtualThreads.factory(name);
+            }
+            if (FALLBACK_LOGGED.compareAndSet(false, true)) {
+                LOGGER.warning("Virtual threads require Java 21 or later; using platform threads");
+            }
+        }
+        return platformThreadFactory(name);
+    }
+
+    /**
+     * Returns a factory for daemon platform threads with the given name.
+     */
+    public static ThreadFactory platformThreadFactory(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns a factory for virtual threads with the given name.
+     *
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     */
+    public static ThreadFactory virtualThreadFactory(String name) {
+        if (!VirtualThreads.isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        return VirtualThreads.factory(name);
+    }
+}
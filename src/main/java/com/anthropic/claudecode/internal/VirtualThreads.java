@@ -0,0 +1,70 @@
+package com.anthropic.claudecode.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual thread factories on runtimes that support them.
+ *
+ * <p>This is the Java 17 variant, which resolves {@code Thread.ofVirtual()} reflectively. Multi-release jars
+ * built on Java 21 replace it with a variant that calls the API directly.
+ */
+final class VirtualThreads {
+    private static final MethodHandle FACTORY = lookupFactory();
+
+    private VirtualThreads() {}
+
+    static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Returns a factory for virtual threads with the given name, or {@code null} when unsupported.
+     */
+    static ThreadFactory factory(String name) {
+        if (FACTORY == null) {
+            return null;
+        }
+        try {
+            return (ThreadFactory) FACTORY.invoke(name);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create virtual thread factory", e);
+        }
+    }
+
+    private static MethodHandle lookupFactory() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> virtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualClass));
+            MethodHandle setName = lookup.findVirtual(
+                    builderClass, "name", MethodType.methodType(builderClass, String.class));
+            MethodHandle factory = lookup.findVirtual(
+                    builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+            // name -> ofVirtual().name(name).factory()
+            MethodHandle named = MethodHandles.filterReturnValue(
+                    MethodHandles.collectArguments(setName, 0, ofVirtual.asType(MethodType.methodType(builderClass))),
+                    factory);
+            named = named.asType(MethodType.methodType(ThreadFactory.class, String.class));
+            return probe(named) ? named : null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether {@code factory} can create a thread. On Java 19 and 20 virtual threads are a preview
+     * feature, so the API exists but fails unless the JVM runs with {@code --enable-preview}.
+     */
+    private static boolean probe(MethodHandle factory) {
+        try {
+            ((ThreadFactory) factory.invoke("claude-virtual-probe")).newThread(() -> {});
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+}
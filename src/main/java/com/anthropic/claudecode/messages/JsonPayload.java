@@ -0,0 +1,111 @@
+package com.anthropic.claudecode.messages;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * A JSON value inside a message whose conversion to Java objects is deferred until it is first accessed.
+ *
+ * <p>Used for tool inputs and tool results of messages that were spilled to disk. A payload refers to a byte
+ * range of the spill file and is read back from it on access, so it does not occupy the heap until decoded.
+ * {@link #getValue()} decodes the payload into maps, lists and scalars once and caches the result;
+ * {@link #openParser()} streams the payload without building an object graph, which suits very large tool
+ * results.
+ */
+public final class JsonPayload {
+    private static final Object UNDECODED = new Object();
+
+    private final Opener opener;
+    private volatile Object value = UNDECODED;
+
+    private JsonPayload(Opener opener) {
+        this.opener = opener;
+    }
+
+    /**
+     * Captures the value at the current token of {@code parser}, which reads from {@code source}, leaving the
+     * parser on the value's last token.
+     */
+    static JsonPayload capture(JsonParser parser, JsonRegionSource source) throws IOException {
+        long offset = parser.currentTokenLocation().getByteOffset();
+        long length;
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            // Finishing the token would decode the whole string; the parser skips it undecoded instead.
+            length = stringLength(source, offset);
+        } else {
+            if (parser.currentToken().isStructStart()) {
+                parser.skipChildren();
+            } else {
+                parser.finishToken();
+            }
+            length = parser.currentLocation().getByteOffset() - offset;
+        }
+        return new JsonPayload(() -> source.openRegion(offset, length));
+    }
+
+    /**
+     * Returns the encoded length of the string literal starting at {@code offset}, including its quotes.
+     */
+    private static long stringLength(JsonRegionSource source, long offset) throws IOException {
+        try (InputStream in = new BufferedInputStream(source.openBytes(offset))) {
+            in.read();
+            long length = 1;
+            boolean escaped = false;
+            int b;
+            while ((b = in.read()) != -1) {
+                length++;
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    return length;
+                }
+            }
+            throw new EOFException("Unterminated string in JSON payload");
+        }
+    }
+
+    /**
+     * Returns the decoded value: a {@code Map}, {@code List}, {@code String}, number, boolean or {@code null}.
+     *
+     * @throws UncheckedIOException if the payload cannot be decoded
+     */
+    public Object getValue() {
+        Object result = value;
+        if (result == UNDECODED) {
+            try (JsonParser parser = openParser()) {
+                result = parser.readValueAs(Object.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to decode JSON payload", e);
+            }
+            value = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether {@link #getValue()} has already decoded the payload.
+     */
+    public boolean isDecoded() {
+        return value != UNDECODED;
+    }
+
+    /**
+     * Opens a new parser over the payload, positioned before its first token.
+     */
+    public JsonParser openParser() throws IOException {
+        return opener.open();
+    }
+
+    @FunctionalInterface
+    private interface Opener {
+        JsonParser open() throws IOException;
+    }
+}
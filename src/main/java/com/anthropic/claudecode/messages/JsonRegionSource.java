@@ -0,0 +1,24 @@
+package com.anthropic.claudecode.messages;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Random-access storage of encoded JSON, such as a message that was spilled to disk.
+ *
+ * <p>A parser whose input source implements this interface lets {@link JsonPayload} refer to a byte range of the
+ * storage instead of copying the payload into memory.
+ */
+public interface JsonRegionSource {
+    /**
+     * Opens a parser over {@code length} bytes starting at {@code offset}, relative to the start of this source.
+     */
+    JsonParser openRegion(long offset, long length) throws IOException;
+
+    /**
+     * Opens the raw bytes from {@code offset}, relative to the start of this source, to its end.
+     */
+    InputStream openBytes(long offset) throws IOException;
+}
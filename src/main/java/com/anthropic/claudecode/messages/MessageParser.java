@@ -1,7 +1,11 @@
 package com.anthropic.claudecode.messages;
 
 import com.anthropic.claudecode.exceptions.MessageParseError;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -11,6 +15,8 @@ import java.util.Map;
  * Utility for converting raw CLI JSON payloads into strongly typed messages.
  */
 public final class MessageParser {
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
     private MessageParser() {}
 
     @SuppressWarnings("unchecked")
@@ -138,6 +144,312 @@ public final class MessageParser {
         }
     }
 
+    /**
+     * Parses a message directly from a token stream without building an intermediate map.
+     *
+     * <p>The parser must be positioned before or on the message's {@code START_OBJECT} and must have an
+     * {@link com.fasterxml.jackson.core.ObjectCodec} for the free-form parts of the payload (tool input,
+     * usage and system metadata). {@code messageType} is the top-level {@code type} field, which the
+     * caller has already determined while framing the message.
+     *
+     * <p>When the parser reads a {@link JsonRegionSource}, such as the spill file of an oversized message,
+     * {@code tool_use} inputs and {@code tool_result} contents are left undecoded in the source until they are
+     * accessed.
+     */
+    public static Message parseMessage(String messageType, JsonParser parser) throws MessageParseError {
+        return parseMessage(messageType, parser, null);
+    }
+
+    /**
+     * Variant of {@link #parseMessage(String, JsonParser)} that attaches the map loaded from
+     * {@code payload} to any {@link MessageParseError}, as the map-based path does. The payload is only loaded
+     * when parsing fails; {@code null} leaves errors without one.
+     */
+    public static Message parseMessage(
+            String messageType, JsonParser parser, PayloadSource payload) throws MessageParseError {
+        try {
+            return readMessage(messageType, parser);
+        } catch (MessageParseError e) {
+            if (payload == null || e.getPayload() != null) {
+                throw e;
+            }
+            Map<String, Object> data;
+            try {
+                data = payload.load();
+            } catch (IOException | RuntimeException loadError) {
+                e.addSuppressed(loadError);
+                throw e;
+            }
+            MessageParseError withPayload = new MessageParseError(e.getMessage(), data, e.getCause());
+            withPayload.setStackTrace(e.getStackTrace());
+            throw withPayload;
+        }
+    }
+
+    private static Message readMessage(String messageType, JsonParser parser) throws MessageParseError {
+        if (messageType == null) {
+            throw new MessageParseError("Message missing 'type' field", null);
+        }
+        try {
+            if (parser.currentToken() == null) {
+                parser.nextToken();
+            }
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                throw new MessageParseError("Message payload was not a JSON object", null);
+            }
+            boolean lazy = parser.getInputSource() instanceof JsonRegionSource;
+            switch (messageType) {
+                case "user":
+                    return readUserMessage(parser, lazy);
+                case "assistant":
+                    return readAssistantMessage(parser, lazy);
+                case "system":
+                    return readSystemMessage(parser);
+                case "result":
+                    return readResultMessage(parser);
+                default:
+                    throw new MessageParseError("Unknown message type: " + messageType, null);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new MessageParseError("Invalid " + messageType + " message payload", null, e);
+        }
+    }
+
+    private static Message readUserMessage(JsonParser parser, boolean lazy) throws IOException, MessageParseError {
+        MessageBody body = readEnvelope(parser, lazy);
+        return new UserMessage(body.content());
+    }
+
+    private static Message readAssistantMessage(JsonParser parser, boolean lazy)
+            throws IOException, MessageParseError {
+        MessageBody body = readEnvelope(parser, lazy);
+        if (!(body.content() instanceof List<?>)) {
+            throw new MessageParseError("Assistant message missing content blocks", null);
+        }
+        if (body.model() == null) {
+            throw new MessageParseError("Assistant message missing model", null);
+        }
+        return new AssistantMessage(body.blocks(), body.model());
+    }
+
+    private static MessageBody readEnvelope(JsonParser parser, boolean lazy) throws IOException, MessageParseError {
+        MessageBody body = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("message".equals(field)) {
+                if (value != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Expected map for key 'message'");
+                }
+                body = readMessageBody(parser, lazy);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (body == null) {
+            throw new IllegalArgumentException("Expected map for key 'message'");
+        }
+        return body;
+    }
+
+    private static MessageBody readMessageBody(JsonParser parser, boolean lazy)
+            throws IOException, MessageParseError {
+        Object content = null;
+        List<ContentBlock> blocks = null;
+        String model = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("content".equals(field)) {
+                if (value == JsonToken.START_ARRAY) {
+                    blocks = new ArrayList<>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        blocks.add(readContentBlock(parser, lazy));
+                    }
+                    content = blocks;
+                } else {
+                    content = parser.readValueAs(Object.class);
+                }
+            } else if ("model".equals(field)) {
+                model = readString(parser, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new MessageBody(content, blocks, model);
+    }
+
+    private static ContentBlock readContentBlock(JsonParser parser, boolean lazy)
+            throws IOException, MessageParseError {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new MessageParseError("Content block was not an object", null);
+        }
+        String type = null;
+        String text = null;
+        String thinking = null;
+        String signature = null;
+        String id = null;
+        String name = null;
+        Map<String, Object> input = null;
+        JsonPayload inputPayload = null;
+        String toolUseId = null;
+        Object content = null;
+        JsonPayload contentPayload = null;
+        Boolean isError = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "type" -> type = readString(parser, value);
+                case "text" -> text = readString(parser, value);
+                case "thinking" -> thinking = readString(parser, value);
+                case "signature" -> signature = readString(parser, value);
+                case "id" -> id = readString(parser, value);
+                case "name" -> name = readString(parser, value);
+                case "input" -> {
+                    if (lazy && value == JsonToken.START_OBJECT) {
+                        inputPayload = JsonPayload.capture(parser, (JsonRegionSource) parser.getInputSource());
+                    } else {
+                        input = readMap(parser, value);
+                    }
+                }
+                case "tool_use_id" -> toolUseId = readString(parser, value);
+                case "content" -> {
+                    if (lazy && value != JsonToken.VALUE_NULL) {
+                        contentPayload = JsonPayload.capture(parser, (JsonRegionSource) parser.getInputSource());
+                    } else {
+                        content = parser.readValueAs(Object.class);
+                    }
+                }
+                case "is_error" -> isError = requireBoolean(value, "is_error");
+                default -> parser.skipChildren();
+            }
+        }
+        if (type == null) {
+            throw new MessageParseError("Content block missing type", null);
+        }
+        switch (type) {
+            case "text":
+                return new TextBlock(require(text, "text"));
+            case "thinking":
+                return new ThinkingBlock(require(thinking, "thinking"), require(signature, "signature"));
+            case "tool_use":
+                if (inputPayload != null) {
+                    return ToolUseBlock.lazy(require(id, "id"), require(name, "name"), inputPayload);
+                }
+                return new ToolUseBlock(require(id, "id"), require(name, "name"), input);
+            case "tool_result":
+                if (contentPayload != null) {
+                    return ToolResultBlock.lazy(require(toolUseId, "tool_use_id"), contentPayload, isError);
+                }
+                return new ToolResultBlock(require(toolUseId, "tool_use_id"), content, isError);
+            default:
+                throw new MessageParseError("Unknown content block type: " + type, null);
+        }
+    }
+
+    private static Message readSystemMessage(JsonParser parser) throws IOException, MessageParseError {
+        Map<String, Object> data = parser.readValueAs(MAP_TYPE);
+        Object subtype = data.get("subtype");
+        if (!(subtype instanceof String subtypeStr)) {
+            throw new MessageParseError("System message missing subtype", data);
+        }
+        return new SystemMessage(subtypeStr, data);
+    }
+
+    private static Message readResultMessage(JsonParser parser) throws IOException {
+        String subtype = null;
+        Integer durationMs = null;
+        Integer durationApiMs = null;
+        Boolean isError = null;
+        Integer numTurns = null;
+        String sessionId = null;
+        Double totalCost = null;
+        Map<String, Object> usage = null;
+        String result = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "subtype" -> subtype = readString(parser, value);
+                case "duration_ms" -> durationMs = readInt(parser, value);
+                case "duration_api_ms" -> durationApiMs = readInt(parser, value);
+                case "is_error" -> isError = requireBoolean(value, "is_error");
+                case "num_turns" -> numTurns = readInt(parser, value);
+                case "session_id" -> sessionId = readString(parser, value);
+                case "total_cost_usd" -> totalCost = value.isNumeric() ? parser.getDoubleValue() : null;
+                case "usage" -> usage = readMap(parser, value);
+                case "result" -> result = readString(parser, value);
+                default -> parser.skipChildren();
+            }
+        }
+        return new ResultMessage(
+                require(subtype, "subtype"),
+                requireNumber(durationMs, "duration_ms"),
+                requireNumber(durationApiMs, "duration_api_ms"),
+                require(isError, "is_error"),
+                requireNumber(numTurns, "num_turns"),
+                require(sessionId, "session_id"),
+                totalCost,
+                usage,
+                result);
+    }
+
+    private static String readString(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static Integer readInt(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isNumeric()) {
+            return parser.getNumberValue().intValue();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static Map<String, Object> readMap(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.START_OBJECT) {
+            return parser.readValueAs(MAP_TYPE);
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static Boolean requireBoolean(JsonToken value, String key) {
+        if (value == JsonToken.VALUE_TRUE || value == JsonToken.VALUE_FALSE) {
+            return value == JsonToken.VALUE_TRUE;
+        }
+        throw new IllegalArgumentException("Expected boolean for key '" + key + "'");
+    }
+
+    private static <T> T require(T value, String key) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing value for key '" + key + "'");
+        }
+        return value;
+    }
+
+    private static int requireNumber(Integer value, String key) {
+        if (value == null) {
+            throw new IllegalArgumentException("Expected numeric value for key '" + key + "'");
+        }
+        return value;
+    }
+
+    /**
+     * Loads the raw payload of a message for error reporting.
+     */
+    @FunctionalInterface
+    public interface PayloadSource {
+        Map<String, Object> load() throws IOException;
+    }
+
+    private record MessageBody(Object content, List<ContentBlock> blocks, String model) {}
+
     private static Map<String, Object> getMap(Map<String, Object> data, String key) {
         Object value = data.get(key);
         if (!(value instanceof Map)) {
@@ -6,20 +6,40 @@ package com.anthropic.claudecode.messages;
 public class ToolResultBlock implements ContentBlock {
     private final String toolUseId;
     private final Object content;
+    private final JsonPayload contentPayload;
     private final Boolean isError;
 
     public ToolResultBlock(String toolUseId, Object content, Boolean isError) {
+        this(toolUseId, content, null, isError);
+    }
+
+    private ToolResultBlock(String toolUseId, Object content, JsonPayload contentPayload, Boolean isError) {
         this.toolUseId = toolUseId;
         this.content = content;
+        this.contentPayload = contentPayload;
         this.isError = isError;
     }
 
+    /**
+     * Creates a block whose content is decoded on first access to {@link #getContent()}.
+     */
+    public static ToolResultBlock lazy(String toolUseId, JsonPayload contentPayload, Boolean isError) {
+        return new ToolResultBlock(toolUseId, null, contentPayload, isError);
+    }
+
     public String getToolUseId() {
         return toolUseId;
     }
 
     public Object getContent() {
-        return content;
+        return contentPayload != null ? contentPayload.getValue() : content;
+    }
+
+    /**
+     * Returns the undecoded content for streaming access, or {@code null} if the content was decoded eagerly.
+     */
+    public JsonPayload getContentPayload() {
+        return contentPayload;
     }
 
     public Boolean getError() {
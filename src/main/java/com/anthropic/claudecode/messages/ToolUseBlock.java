@@ -9,11 +9,24 @@ public class ToolUseBlock implements ContentBlock {
     private final String id;
     private final String name;
     private final Map<String, Object> input;
+    private final JsonPayload inputPayload;
 
     public ToolUseBlock(String id, String name, Map<String, Object> input) {
+        this(id, name, input, null);
+    }
+
+    private ToolUseBlock(String id, String name, Map<String, Object> input, JsonPayload inputPayload) {
         this.id = id;
         this.name = name;
         this.input = input;
+        this.inputPayload = inputPayload;
+    }
+
+    /**
+     * Creates a block whose input is decoded on first access to {@link #getInput()}.
+     */
+    public static ToolUseBlock lazy(String id, String name, JsonPayload inputPayload) {
+        return new ToolUseBlock(id, name, null, inputPayload);
     }
 
     public String getId() {
@@ -24,10 +37,21 @@ public class ToolUseBlock implements ContentBlock {
         return name;
     }
 
+    @SuppressWarnings("unchecked")
     public Map<String, Object> getInput() {
+        if (inputPayload != null) {
+            return inputPayload.getValue() instanceof Map<?, ?> map ? (Map<String, Object>) map : null;
+        }
         return input;
     }
 
+    /**
+     * Returns the undecoded input for streaming access, or {@code null} if the input was decoded eagerly.
+     */
+    public JsonPayload getInputPayload() {
+        return inputPayload;
+    }
+
     @Override
     public String getType() {
         return "tool_use";
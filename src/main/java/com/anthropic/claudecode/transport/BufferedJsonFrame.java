@@ -0,0 +1,47 @@
+package com.anthropic.claudecode.transport;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@link JsonFrame} whose tokens are held in memory.
+ */
+final class BufferedJsonFrame implements JsonFrame {
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final TokenBuffer tokens;
+    private final String type;
+    private final long size;
+
+    BufferedJsonFrame(TokenBuffer tokens, String type, long size) {
+        this.tokens = tokens;
+        this.type = type;
+        this.size = size;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public JsonParser open() {
+        return tokens.asParser();
+    }
+
+    @Override
+    public Map<String, Object> toMap() throws IOException {
+        try (JsonParser parser = open()) {
+            return parser.readValueAs(MAP_TYPE);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.exceptions.CLINotFoundError;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the Claude Code CLI and remembers where it is for the life of the process.
+ *
+ * <p>Discovery scans {@code PATH} and the usual install locations once per combination of {@code PATH} and
+ * home directory. Later lookups only check that the binary found is still the same file, by comparing its
+ * file key (the inode on Unix) and modification time, so reinstalling or upgrading the CLI is picked up while
+ * repeated connects cost a single stat call.
+ */
+final class CliResolver {
+    private static final Logger LOGGER = Logger.getLogger(CliResolver.class.getName());
+    private static final long VERSION_TIMEOUT_SECONDS = 10;
+    private static final Pattern VERSION = Pattern.compile("(\\d+\\.\\d+\\.\\d+)");
+    private static final Map<Key, Resolution> DISCOVERED = new ConcurrentHashMap<>();
+    private static final Map<Path, Resolution> BY_PATH = new ConcurrentHashMap<>();
+
+    private CliResolver() {}
+
+    /**
+     * Returns the CLI to run: {@code explicitPath} if given, then {@code CLAUDE_CODE_CLI_PATH}, then the result
+     * of discovery.
+     */
+    static Resolution resolve(Path explicitPath) throws CLINotFoundError {
+        if (explicitPath != null) {
+            return forPath(explicitPath);
+        }
+        String override = System.getenv("CLAUDE_CODE_CLI_PATH");
+        if (override != null && !override.isBlank()) {
+            return forPath(Path.of(override));
+        }
+        Key key = new Key(System.getenv("PATH"), System.getProperty("user.home"));
+        Resolution cached = DISCOVERED.get(key);
+        if (cached != null && cached.isCurrent()) {
+            return cached;
+        }
+        Resolution found = forPath(discover(key));
+        DISCOVERED.put(key, found);
+        return found;
+    }
+
+    private static Resolution forPath(Path path) {
+        return BY_PATH.compute(path, (p, existing) ->
+                existing != null && existing.isCurrent() ? existing : new Resolution(p, Stamp.of(p)));
+    }
+
+    private static Path discover(Key key) throws CLINotFoundError {
+        Path onPath = findExecutableOnPath(key.path(), "claude");
+        if (onPath != null) {
+            return onPath;
+        }
+        String home = key.home();
+        List<Path> locations = List.of(
+                Path.of(home, ".npm-global/bin/claude"),
+                Path.of("/usr/local/bin/claude"),
+                Path.of(home, ".local/bin/claude"),
+                Path.of(home, "node_modules/.bin/claude"),
+                Path.of(home, ".yarn/bin/claude"));
+        for (Path path : locations) {
+            if (path.toFile().isFile()) {
+                return path.toAbsolutePath();
+            }
+        }
+        boolean nodeInstalled = findExecutableOnPath(key.path(), "node") != null;
+        if (!nodeInstalled) {
+            throw new CLINotFoundError(
+                    "Claude Code requires Node.js. Install Node.js and @anthropic-ai/claude-code.");
+        }
+        throw new CLINotFoundError(
+                "Claude Code CLI not found. Install with 'npm install -g @anthropic-ai/claude-code'.");
+    }
+
+    private static Path findExecutableOnPath(String path, String name) {
+        if (path == null) {
+            return null;
+        }
+        String[] parts = path.split(System.getProperty("path.separator"));
+        for (String dir : parts) {
+            Path candidate = Path.of(dir, name);
+            if (candidate.toFile().canExecute()) {
+                return candidate.toAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    private record Key(String path, String home) {
+    }
+
+    /**
+     * Identity of a file at one point in time. {@link #of(Path)} returns {@code null} if the file cannot be read.
+     */
+    private record Stamp(Object fileKey, FileTime lastModified) {
+        static Stamp of(Path path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return new Stamp(attributes.fileKey(), attributes.lastModifiedTime());
+            } catch (IOException | UnsupportedOperationException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A located CLI binary and, once probed, its version.
+     */
+    static final class Resolution {
+        private final Path path;
+        private final Stamp stamp;
+        private boolean versionProbed;
+        private String version;
+
+        private Resolution(Path path, Stamp stamp) {
+            this.path = path;
+            this.stamp = stamp;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        /**
+         * Returns whether the file at the path is still the one that was found.
+         */
+        boolean isCurrent() {
+            return stamp != null && Objects.equals(stamp, Stamp.of(path));
+        }
+
+        /**
+         * Runs the CLI with {@code --version} the first time it is called and returns the version number, or
+         * {@code null} if it could not be determined.
+         */
+        synchronized String version() {
+            if (!versionProbed) {
+                version = probeVersion();
+                versionProbed = !Thread.currentThread().isInterrupted();
+            }
+            return version;
+        }
+
+        private String probeVersion() {
+            Process process = null;
+            try {
+                process = new ProcessBuilder(path.toString(), "--version").redirectErrorStream(true).start();
+                process.getOutputStream().close();
+                // The output is one short line, which fits in the pipe, so waiting first cannot deadlock.
+                if (!process.waitFor(VERSION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.fine("Timed out getting Claude Code CLI version");
+                    return null;
+                }
+                String line;
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    line = reader.readLine();
+                }
+                if (line == null) {
+                    return null;
+                }
+                Matcher matcher = VERSION.matcher(line);
+                return matcher.find() ? matcher.group(1) : null;
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to get Claude Code CLI version", e);
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                if (process != null) {
+                    process.destroy();
+                }
+            }
+        }
+    }
+}
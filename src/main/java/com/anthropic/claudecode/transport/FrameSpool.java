@@ -0,0 +1,82 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.JsonCodec;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only temporary file that parks messages on disk while consumers are behind.
+ *
+ * <p>Each appended frame is re-encoded into the current file and returned as a frame that reads its region
+ * back on demand. After {@link #rotate()} the next append starts a new file; an old file is deleted once no
+ * frame or payload read from it is reachable any more.
+ */
+public final class FrameSpool implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(FrameSpool.class.getName());
+
+    private final JsonCodec codec;
+    private final Path directory;
+    private SpillFile file;
+    private FileChannel channel;
+    private JsonGenerator generator;
+
+    public FrameSpool(JsonCodec codec, Path directory) {
+        this.codec = codec;
+        this.directory = directory;
+    }
+
+    /**
+     * Writes {@code frame} to the spool and returns a disk-backed copy of it. A frame that is already on disk
+     * is returned as is.
+     */
+    public synchronized JsonFrame append(JsonFrame frame) throws IOException {
+        if (frame.isSpilled()) {
+            return frame;
+        }
+        if (generator == null) {
+            file = SpillFile.create(directory, codec);
+            channel = FileChannel.open(file.getPath(), StandardOpenOption.WRITE);
+            generator = codec.getFactory().createGenerator(Channels.newOutputStream(channel), JsonEncoding.UTF8);
+            generator.setRootValueSeparator(null);
+        }
+        long offset = channel.position();
+        try (JsonParser parser = frame.open()) {
+            while (parser.nextToken() != null) {
+                generator.copyCurrentEvent(parser);
+            }
+        }
+        generator.flush();
+        return new SpilledJsonFrame(file, offset, channel.position() - offset, frame.getType(), frame.getSize());
+    }
+
+    /**
+     * Finishes the current file, typically once every frame spooled to it has been consumed.
+     */
+    public synchronized void rotate() {
+        if (generator == null) {
+            return;
+        }
+        try {
+            generator.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close message spool", e);
+        }
+        generator = null;
+        channel = null;
+        file = null;
+    }
+
+    @Override
+    public void close() {
+        rotate();
+    }
+}
@@ -0,0 +1,387 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Services the stdout and stderr pipes of many CLI processes from a small, fixed set of event-loop threads.
+ *
+ * <p>Process pipes are not selectable channels, so each loop polls its streams for available bytes, reads
+ * only what is already buffered and hands it to the stream's handler, which runs the incremental JSON framer
+ * and dispatches messages. Each stream backs off on its own: one with nothing to read is polled again after a
+ * short delay that doubles while it stays empty, and only about twenty times a second once it has been quiet
+ * for a while, so a pass over the loop touches only the streams that are due and a busy stream does not keep
+ * quiet ones on the fast schedule. Writing to a process or its exit brings its stream back to fast polling. A
+ * loop whose streams are all paused parks until one is resumed, and a loop with nothing registered stops its
+ * thread shortly after, starting a new one on the next registration. Reads never block: once the process has
+ * exited, end of output is assumed when no bytes arrive for a short grace period, since a process it started
+ * may still hold the pipe open.
+ *
+ * <p>Enable it with {@link com.anthropic.claudecode.ClaudeCodeOptions#setIoReactor(IoReactor)}. Because
+ * handlers run on the loop, message callbacks must not block; slow consumers should hand work to their own
+ * executor.
+ */
+public final class IoReactor implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(IoReactor.class.getName());
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long QUIET_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long QUIET_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long LINGER_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long EXIT_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // Outcomes of servicing one stream once.
+    private static final int IDLE = 0;
+    private static final int BUSY = 1;
+    private static final int DONE = 2;
+
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public IoReactor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop("claude-io-" + i);
+        }
+    }
+
+    /**
+     * Returns a process-wide reactor with one loop per two available processors, at most four. Its threads
+     * run only while streams are registered.
+     */
+    public static IoReactor shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Returns the number of streams currently being serviced.
+     */
+    public int getRegisteredCount() {
+        int count = 0;
+        for (EventLoop loop : loops) {
+            count += loop.registered.get();
+        }
+        return count;
+    }
+
+    /**
+     * Starts servicing {@code in}. {@code producerAlive} reports whether the writing process is still running;
+     * once it is not, the stream ends when it stays empty for a short grace period.
+     */
+    Registration register(InputStream in, ChunkHandler handler, BooleanSupplier producerAlive) {
+        if (closed.get()) {
+            throw new IllegalStateException("I/O reactor is closed");
+        }
+        EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        Registration registration = new Registration(in, handler, producerAlive, loop);
+        loop.registered.incrementAndGet();
+        loop.pending.add(registration);
+        loop.start();
+        return registration;
+    }
+
+    /**
+     * Stops all loops. Streams still registered receive no further callbacks. Closing the shared reactor has
+     * no effect.
+     */
+    @Override
+    public void close() {
+        if (this == Shared.INSTANCE || !closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (EventLoop loop : loops) {
+            LockSupport.unpark(loop.thread);
+        }
+    }
+
+    /**
+     * Receives the bytes of one registered stream. Exactly one of {@link #onEnd()} and
+     * {@link #onFailure(Exception)} is called last, unless the registration is cancelled first.
+     */
+    interface ChunkHandler {
+        /**
+         * Consumes {@code length} bytes. The array is reused once this method returns.
+         */
+        void onData(byte[] data, int length) throws IOException, ClaudeSDKException;
+
+        void onEnd();
+
+        void onFailure(Exception error);
+    }
+
+    /**
+     * A stream serviced by one event loop.
+     */
+    static final class Registration {
+        private final InputStream in;
+        private final ChunkHandler handler;
+        private final BooleanSupplier producerAlive;
+        private final EventLoop loop;
+        private volatile boolean cancelled;
+        private volatile boolean paused;
+        // Set by callers to bring the stream back to fast polling; quiet is set while it is polled slowly.
+        private volatile boolean expected;
+        private volatile boolean quiet;
+        // Confined to the loop thread: whether the stream has been empty since the producer exited, and since when.
+        private boolean emptyAfterExit;
+        private long emptySince;
+        // Confined to the loop thread: the stream's backoff, when it last had data, and when it is next polled.
+        private long idleNanos = MIN_IDLE_NANOS;
+        private long lastActive;
+        private long nextPoll;
+
+        private Registration(InputStream in, ChunkHandler handler, BooleanSupplier producerAlive, EventLoop loop) {
+            this.in = in;
+            this.handler = handler;
+            this.producerAlive = producerAlive;
+            this.loop = loop;
+        }
+
+        /**
+         * Stops servicing the stream. Callbacks already running complete normally.
+         */
+        void cancel() {
+            cancelled = true;
+            LockSupport.unpark(loop.thread);
+        }
+
+        /**
+         * Stops or resumes reading the stream while keeping it registered.
+         */
+        void setPaused(boolean paused) {
+            this.paused = paused;
+            if (!paused) {
+                expected = true;
+                loop.wake();
+            }
+        }
+
+        /**
+         * Hints that output is expected soon, so a loop that has slowed down while the stream was quiet polls
+         * quickly again.
+         */
+        void expectData() {
+            expected = true;
+            if (quiet) {
+                LockSupport.unpark(loop.thread);
+            }
+        }
+
+        /**
+         * Polls the stream on the next pass and restarts its backoff.
+         */
+        private void resetBackoff(long now) {
+            idleNanos = MIN_IDLE_NANOS;
+            lastActive = now;
+            nextPoll = now;
+            quiet = false;
+        }
+
+        /**
+         * Schedules the next poll of a stream that had nothing to read and returns the delay until then.
+         */
+        private long backOff(long now) {
+            long interval;
+            if (now - lastActive >= QUIET_NANOS) {
+                quiet = true;
+                // A caller that saw the stream as not yet quiet did not unpark the loop.
+                interval = expected ? 0 : QUIET_POLL_NANOS;
+            } else {
+                interval = idleNanos;
+                idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+            }
+            nextPoll = now + interval;
+            return interval;
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final String name;
+        private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+        private final List<Registration> active = new ArrayList<>();
+        private final AtomicInteger registered = new AtomicInteger();
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private volatile Thread thread;
+        // Set by callers that need the loop to make a pass without waiting for the next stream to be due.
+        private volatile boolean woken;
+
+        private EventLoop(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Starts the loop's thread unless it is running, in which case it is woken instead.
+         */
+        private void start() {
+            if (!running.compareAndSet(false, true)) {
+                wake();
+                return;
+            }
+            Thread started = new Thread(this, name);
+            started.setDaemon(true);
+            thread = started;
+            started.start();
+        }
+
+        private void wake() {
+            woken = true;
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            long lastActive = System.nanoTime();
+            while (!closed.get()) {
+                boolean progress = false;
+                Registration added;
+                while ((added = pending.poll()) != null) {
+                    added.resetBackoff(System.nanoTime());
+                    active.add(added);
+                    progress = true;
+                }
+                if (woken) {
+                    woken = false;
+                    progress = true;
+                }
+                long now = System.nanoTime();
+                boolean readable = false;
+                long wait = Long.MAX_VALUE;
+                for (Iterator<Registration> it = active.iterator(); it.hasNext(); ) {
+                    Registration registration = it.next();
+                    if (registration.cancelled) {
+                        it.remove();
+                        registered.decrementAndGet();
+                        progress = true;
+                        continue;
+                    }
+                    if (registration.paused) {
+                        continue;
+                    }
+                    readable = true;
+                    if (registration.expected) {
+                        registration.expected = false;
+                        registration.resetBackoff(now);
+                    }
+                    if (now - registration.nextPoll < 0) {
+                        // Quiet streams are skipped until they are due, so a pass only touches those that are.
+                        wait = Math.min(wait, registration.nextPoll - now);
+                        continue;
+                    }
+                    int state = service(registration);
+                    if (state == DONE) {
+                        it.remove();
+                        registered.decrementAndGet();
+                        progress = true;
+                    } else if (state == BUSY) {
+                        registration.resetBackoff(now);
+                        progress = true;
+                    } else {
+                        wait = Math.min(wait, registration.backOff(now));
+                    }
+                }
+                if (progress) {
+                    lastActive = now;
+                } else if (active.isEmpty()) {
+                    if (System.nanoTime() - lastActive >= LINGER_NANOS && stop()) {
+                        return;
+                    }
+                    LockSupport.parkNanos(this, LINGER_NANOS);
+                } else if (!readable) {
+                    // Every stream is paused; resuming, cancelling or registering one unparks the loop.
+                    LockSupport.park(this);
+                } else if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+        }
+
+        /**
+         * Lets the thread exit unless a registration arrived meanwhile and no replacement thread was started.
+         */
+        private boolean stop() {
+            running.set(false);
+            return pending.isEmpty() || !running.compareAndSet(false, true);
+        }
+
+        private int service(Registration registration) {
+            try {
+                int available = registration.in.available();
+                if (available <= 0) {
+                    return registration.producerAlive.getAsBoolean() ? IDLE : awaitEnd(registration);
+                }
+                int read = registration.in.read(chunk, 0, Math.min(available, chunk.length));
+                if (read == -1) {
+                    notifyEnd(registration);
+                    return DONE;
+                }
+                registration.emptyAfterExit = false;
+                registration.handler.onData(chunk, read);
+                return BUSY;
+            } catch (IOException | ClaudeSDKException | RuntimeException e) {
+                if (!registration.cancelled) {
+                    notifyFailure(registration, e);
+                }
+                return DONE;
+            }
+        }
+
+        /**
+         * Ends an empty stream whose producer has exited once it has stayed empty for the grace period. A read
+         * could block the loop here, because a process the producer started may have inherited the pipe.
+         */
+        private int awaitEnd(Registration registration) {
+            long now = System.nanoTime();
+            if (!registration.emptyAfterExit) {
+                registration.emptyAfterExit = true;
+                registration.emptySince = now;
+                return IDLE;
+            }
+            if (now - registration.emptySince < EXIT_GRACE_NANOS) {
+                return IDLE;
+            }
+            notifyEnd(registration);
+            return DONE;
+        }
+
+        private void notifyEnd(Registration registration) {
+            try {
+                registration.handler.onEnd();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "I/O handler failed at end of stream", e);
+            }
+        }
+
+        private void notifyFailure(Registration registration, Exception error) {
+            try {
+                registration.handler.onFailure(error);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "I/O handler failed while reporting an error", e);
+            }
+        }
+    }
+
+    private static final class Shared {
+        static final IoReactor INSTANCE =
+                new IoReactor(Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+}
@@ -0,0 +1,41 @@
+package com.anthropic.claudecode.transport;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A single top-level JSON object read from the CLI, kept in tokenized form so that consumers can
+ * deserialize it straight into their own types.
+ */
+public interface JsonFrame {
+    /**
+     * Returns the value of the top-level {@code type} field, or {@code null} when it is absent or not a string.
+     */
+    String getType();
+
+    /**
+     * Returns the encoded size of the message in bytes.
+     */
+    long getSize();
+
+    /**
+     * Returns whether the message exceeded the in-memory buffer and is backed by a temporary file. Consumers
+     * should avoid materializing large parts of such messages.
+     */
+    default boolean isSpilled() {
+        return false;
+    }
+
+    /**
+     * Opens a new parser over the message. The parser is positioned before the top-level {@code START_OBJECT}
+     * and can be used with the mapper that produced the frame. Each call returns an independent parser.
+     */
+    JsonParser open() throws IOException;
+
+    /**
+     * Materializes the message as a generic map.
+     */
+    Map<String, Object> toMap() throws IOException;
+}
@@ -0,0 +1,20 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.JsonCodec;
+import com.anthropic.claudecode.exceptions.CLIConnectionError;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * Line encoding for transports that only implement {@link Transport#write(String)}.
+ */
+final class JsonLines {
+    private JsonLines() {}
+
+    static String encode(Object message) throws CLIConnectionError {
+        try {
+            return JsonCodec.shared().getWriter().writeValueAsString(message) + "\n";
+        } catch (JsonProcessingException e) {
+            throw new CLIConnectionError("Failed to encode message", e);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.JsonCodec;
+import com.anthropic.claudecode.OversizedMessagePolicy;
+import com.anthropic.claudecode.exceptions.CLIJSONDecodeError;
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Splits the CLI's stdout byte stream into top-level JSON objects.
+ *
+ * <p>Bytes are pushed through Jackson's non-blocking parser, so every byte is tokenized exactly once
+ * regardless of how the CLI chunks its output. Tokens of the message in progress are captured into a
+ * {@link TokenBuffer}, which is handed to the listener as a {@link JsonFrame} as soon as the top-level
+ * object closes. The top-level {@code type} field is recorded on the way so consumers can dispatch
+ * without another pass.
+ *
+ * <p>A message that grows beyond {@code maxBufferSize} either fails or, under
+ * {@link OversizedMessagePolicy#SPILL_TO_DISK}, continues in a temporary file: its complete tokens are
+ * re-encoded there, and the rest of the message, including the token still being read, is copied byte for
+ * byte without being parsed until it is consumed. The parser keeps a token in memory until it is complete,
+ * so to be able to spill a long string this policy also retains the raw bytes of the unfinished token. Either
+ * way the heap holds roughly one buffer's worth of any message, whatever the length of its strings.
+ * Jackson's own string length limit does not apply here, since {@code maxBufferSize} bounds what is parsed.
+ */
+final class JsonMessageFramer implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(JsonMessageFramer.class.getName());
+
+    private final JsonCodec codec;
+    private final JsonFactory factory;
+    private final int maxBufferSize;
+    private final OversizedMessagePolicy oversizedMessagePolicy;
+    private final Path spillDirectory;
+
+    private JsonParser parser;
+    private ByteArrayFeeder feeder;
+    private long fed;
+
+    private boolean inMessage;
+    private TokenBuffer current;
+    private long messageStart;
+    private int depth;
+    private boolean typeValueNext;
+    private String type;
+    // End of the last complete token, the token itself, and the raw bytes read since, while spilling may follow.
+    private long lastTokenEnd;
+    private JsonToken lastToken;
+    private byte[] tail = new byte[0];
+    private int tailLength;
+
+    private SpillFile spillFile;
+    private OutputStream spillOut;
+    private long spilledSize;
+    private char separator;
+    private boolean inString;
+    private boolean escaped;
+
+    JsonMessageFramer(JsonCodec codec,
+                      int maxBufferSize,
+                      OversizedMessagePolicy oversizedMessagePolicy,
+                      Path spillDirectory) throws IOException {
+        this.codec = codec;
+        this.factory = withoutStringLimit(codec.getFactory());
+        this.maxBufferSize = maxBufferSize;
+        this.oversizedMessagePolicy = oversizedMessagePolicy;
+        this.spillDirectory = spillDirectory;
+        newParser();
+    }
+
+    /**
+     * Returns a copy of {@code factory} whose parsers accept strings of any length, keeping its other limits.
+     */
+    static JsonFactory withoutStringLimit(JsonFactory factory) {
+        JsonFactory copy = factory.copy();
+        copy.setStreamReadConstraints(factory.streamReadConstraints().rebuild()
+                .maxStringLength(Integer.MAX_VALUE)
+                .build());
+        return copy;
+    }
+
+    private void newParser() throws IOException {
+        parser = factory.createNonBlockingByteArrayParser();
+        feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        fed = 0;
+    }
+
+    /**
+     * Feeds {@code length} bytes starting at {@code offset}. The array is fully consumed before this
+     * method returns, so callers may reuse it for the next read.
+     */
+    void feed(byte[] data, int offset, int length, FrameListener listener)
+            throws IOException, ClaudeSDKException {
+        int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            if (spillOut != null) {
+                position = copySpilled(data, position, end, listener);
+            } else {
+                parse(data, position, end, listener);
+                position = end;
+            }
+        }
+    }
+
+    private void parse(byte[] data, int offset, int end, FrameListener listener)
+            throws IOException, ClaudeSDKException {
+        long chunkStart = fed;
+        feeder.feedInput(data, offset, end);
+        fed += end - offset;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.NOT_AVAILABLE) {
+            if (token == null) {
+                return;
+            }
+            if (!inMessage) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new CLIJSONDecodeError("Expected JSON object from CLI but found " + token);
+                }
+                // Non-blocking parsers cannot carry a codec, so bind the buffer to the codec directly.
+                current = new TokenBuffer(codec, false);
+                inMessage = true;
+                // The non-blocking parser reports where the token ends, and '{' is a single byte.
+                messageStart = parser.currentLocation().getByteOffset() - 1;
+                depth = 0;
+                type = null;
+            }
+            current.copyCurrentEvent(parser);
+            lastToken = token;
+            lastTokenEnd = parser.currentLocation().getByteOffset();
+            if (depth == 1) {
+                if (typeValueNext && token == JsonToken.VALUE_STRING) {
+                    type = parser.getText();
+                }
+                typeValueNext = token == JsonToken.FIELD_NAME && "type".equals(parser.currentName());
+            }
+            if (token.isStructStart()) {
+                depth++;
+            } else if (token.isStructEnd() && --depth == 0) {
+                listener.onFrame(completeMessage());
+            }
+        }
+        if (!inMessage) {
+            return;
+        }
+        boolean spill = oversizedMessagePolicy == OversizedMessagePolicy.SPILL_TO_DISK;
+        if (spill) {
+            retainTail(data, offset, end, chunkStart);
+        }
+        if (fed - messageStart > maxBufferSize) {
+            if (!spill) {
+                discardMessage();
+                throw new CLIJSONDecodeError(
+                        "JSON message exceeded maximum buffer size of " + maxBufferSize + " bytes");
+            }
+            startSpill();
+            // The tail holds no complete token, so it cannot finish the message.
+            byte[] pending = Arrays.copyOf(tail, tailLength);
+            tailLength = 0;
+            copySpilled(pending, 0, pending.length, listener);
+        }
+    }
+
+    /**
+     * Keeps the bytes after the last complete token, which the parser holds only in decoded form.
+     */
+    private void retainTail(byte[] data, int offset, int end, long chunkStart) {
+        int from = offset;
+        if (lastTokenEnd >= chunkStart) {
+            tailLength = 0;
+            from = offset + (int) (lastTokenEnd - chunkStart);
+        }
+        int count = end - from;
+        if (tailLength + count > tail.length) {
+            tail = Arrays.copyOf(tail, Math.max(tailLength + count, tail.length * 2));
+        }
+        System.arraycopy(data, from, tail, tailLength, count);
+        tailLength += count;
+    }
+
+    private JsonFrame completeMessage() throws IOException {
+        long size = parser.currentLocation().getByteOffset() - messageStart;
+        JsonFrame frame = new BufferedJsonFrame(current, type, size);
+        inMessage = false;
+        current = null;
+        tailLength = 0;
+        return frame;
+    }
+
+    private void startSpill() throws IOException {
+        spillFile = SpillFile.create(spillDirectory, codec);
+        try {
+            spillOut = new BufferedOutputStream(Files.newOutputStream(spillFile.getPath()));
+            try (JsonGenerator generator = codec.getFactory().createGenerator(spillOut, JsonEncoding.UTF8)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                current.serialize(generator);
+            }
+        } catch (IOException e) {
+            discardMessage();
+            throw e;
+        }
+        current = null;
+        spilledSize = lastTokenEnd - messageStart;
+        // The raw bytes follow the re-encoded tokens, so the separator between them is written explicitly.
+        separator = lastToken.isStructStart() ? 0 : lastToken == JsonToken.FIELD_NAME ? ':' : ',';
+        inString = false;
+        escaped = false;
+    }
+
+    /**
+     * Copies raw bytes of a spilled message until its top-level object closes, tracking only strings and
+     * nesting. Returns the position after the message, or {@code end} if it continues. A failure to write the
+     * spill file discards the message and deletes the file.
+     */
+    private int copySpilled(byte[] data, int offset, int end, FrameListener listener)
+            throws IOException, ClaudeSDKException {
+        int next;
+        JsonFrame frame;
+        try {
+            next = copySpilledBytes(data, offset, end);
+            if (next < 0) {
+                return end;
+            }
+            frame = completeSpill();
+        } catch (IOException e) {
+            discardMessage();
+            throw e;
+        }
+        listener.onFrame(frame);
+        return next;
+    }
+
+    /**
+     * Writes the bytes of the spilled message to its file. Returns the position after the message, with the
+     * file closed, or {@code -1} if the message continues.
+     */
+    private int copySpilledBytes(byte[] data, int offset, int end) throws IOException {
+        int from = offset;
+        for (int i = offset; i < end; i++) {
+            byte b = data[i];
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            if (separator != 0) {
+                // Separators that the parser already consumed are dropped along with any that were not.
+                if (b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == ',' || b == ':') {
+                    spillOut.write(data, from, i - from);
+                    from = i + 1;
+                    continue;
+                }
+                if (b != '}' && b != ']') {
+                    spillOut.write(separator);
+                }
+                separator = 0;
+            }
+            if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                spillOut.write(data, from, i + 1 - from);
+                spilledSize += i + 1 - offset;
+                spillOut.close();
+                return i + 1;
+            }
+        }
+        spillOut.write(data, from, end - from);
+        spilledSize += end - offset;
+        return -1;
+    }
+
+    private JsonFrame completeSpill() throws IOException {
+        long size = spilledSize;
+        JsonFrame frame = new SpilledJsonFrame(spillFile, 0, Files.size(spillFile.getPath()), type, size);
+        LOGGER.fine(() -> "Spilled " + size + " byte message to " + spillFile.getPath());
+        inMessage = false;
+        spillFile = null;
+        spillOut = null;
+        // The parser still holds the start of the token that was spilled, so continue with a fresh one.
+        parser.close();
+        newParser();
+        return frame;
+    }
+
+    private void discardMessage() {
+        inMessage = false;
+        current = null;
+        tailLength = 0;
+        if (spillOut != null) {
+            try {
+                spillOut.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close spill file", e);
+            }
+            spillOut = null;
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Returns {@code true} when a message has been started but its top-level object has not closed.
+     */
+    boolean hasPartialMessage() {
+        return inMessage;
+    }
+
+    @Override
+    public void close() throws IOException {
+        discardMessage();
+        parser.close();
+    }
+
+    /**
+     * Receives each complete top-level JSON object.
+     */
+    @FunctionalInterface
+    interface FrameListener {
+        void onFrame(JsonFrame frame) throws IOException, ClaudeSDKException;
+    }
+}
@@ -0,0 +1,270 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.ClaudeCodeOptions;
+import com.anthropic.claudecode.HookEvent;
+import com.anthropic.claudecode.HookMatcher;
+import com.anthropic.claudecode.JsonCodec;
+import com.anthropic.claudecode.exceptions.ClaudeSDKException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable description of how to launch the CLI for one set of options: the command-line flags, the
+ * environment variables set on top of the JVM's own, and the working directory, all computed once.
+ *
+ * <p>Specs are values. Two specs are equal exactly when their options launch identical processes and configure
+ * the SDK side of the session identically; callbacks, streams and executors compare by identity. That makes a
+ * spec usable as a cache or pool key. Frozen options (see {@link ClaudeCodeOptions#freeze()}) compute their spec
+ * once, so repeated sessions with them skip rebuilding the command line and re-encoding the MCP configuration.
+ */
+public final class LaunchSpec {
+    private final Path cliPath;
+    private final List<String> arguments;
+    private final Map<String, String> environment;
+    private final Path workingDirectory;
+    private final List<Object> sessionSettings;
+    private final int hash;
+
+    private LaunchSpec(Path cliPath, List<String> arguments, Map<String, String> environment,
+                       Path workingDirectory, List<Object> sessionSettings) {
+        this.cliPath = cliPath;
+        this.arguments = arguments;
+        this.environment = environment;
+        this.workingDirectory = workingDirectory;
+        this.sessionSettings = sessionSettings;
+        this.hash = Objects.hash(cliPath, arguments, environment, workingDirectory, sessionSettings);
+    }
+
+    /**
+     * Computes the spec for {@code options}. Later changes to the options do not affect the spec.
+     */
+    public static LaunchSpec of(ClaudeCodeOptions options) throws ClaudeSDKException {
+        return new LaunchSpec(
+                options.getCliPath(),
+                Collections.unmodifiableList(arguments(options)),
+                Collections.unmodifiableMap(environment(options)),
+                options.getCwd(),
+                Collections.unmodifiableList(sessionSettings(options)));
+    }
+
+    /**
+     * Returns the CLI named by the options, or {@code null} if it is located at launch.
+     */
+    public Path getCliPath() {
+        return cliPath;
+    }
+
+    /**
+     * Returns the flags derived from the options, without the CLI itself and the input mode flags.
+     */
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Returns the variables set on top of the JVM's environment.
+     */
+    public Map<String, String> getEnvironment() {
+        return environment;
+    }
+
+    public Path getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    /**
+     * Returns the full command line for {@code cli} in streaming mode, or in print mode with {@code prompt}.
+     */
+    List<String> command(String cli, boolean streaming, String prompt) {
+        List<String> cmd = new ArrayList<>(arguments.size() + 4);
+        cmd.add(cli);
+        cmd.addAll(arguments);
+        if (streaming) {
+            cmd.add("--input-format");
+            cmd.add("stream-json");
+        } else if (prompt != null) {
+            cmd.add("--print");
+            cmd.add("--");
+            cmd.add(prompt);
+        }
+        return cmd;
+    }
+
+    /**
+     * Sets the working directory and environment of {@code builder}, which already inherits the JVM's.
+     */
+    void applyTo(ProcessBuilder builder) {
+        if (workingDirectory != null) {
+            builder.directory(workingDirectory.toFile());
+        }
+        builder.environment().putAll(environment);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LaunchSpec other)) {
+            return false;
+        }
+        return hash == other.hash
+                && Objects.equals(cliPath, other.cliPath)
+                && arguments.equals(other.arguments)
+                && environment.equals(other.environment)
+                && Objects.equals(workingDirectory, other.workingDirectory)
+                && sessionSettings.equals(other.sessionSettings);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Describes the spec without environment values, which may hold credentials.
+     */
+    @Override
+    public String toString() {
+        return "LaunchSpec{cliPath=" + cliPath
+                + ", arguments=" + arguments
+                + ", environment=" + environment.keySet()
+                + ", workingDirectory=" + workingDirectory + "}";
+    }
+
+    private static List<String> arguments(ClaudeCodeOptions options) throws ClaudeSDKException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("--output-format");
+        cmd.add("stream-json");
+        cmd.add("--verbose");
+
+        if (options.getSystemPrompt() != null) {
+            cmd.add("--system-prompt");
+            cmd.add(options.getSystemPrompt());
+        }
+        if (options.getAppendSystemPrompt() != null) {
+            cmd.add("--append-system-prompt");
+            cmd.add(options.getAppendSystemPrompt());
+        }
+        if (!options.getAllowedTools().isEmpty()) {
+            cmd.add("--allowedTools");
+            cmd.add(String.join(",", options.getAllowedTools()));
+        }
+        if (options.getMaxTurns() != null) {
+            cmd.add("--max-turns");
+            cmd.add(String.valueOf(options.getMaxTurns()));
+        }
+        if (!options.getDisallowedTools().isEmpty()) {
+            cmd.add("--disallowedTools");
+            cmd.add(String.join(",", options.getDisallowedTools()));
+        }
+        if (options.getModel() != null) {
+            cmd.add("--model");
+            cmd.add(options.getModel());
+        }
+        if (options.getPermissionPromptToolName() != null) {
+            cmd.add("--permission-prompt-tool");
+            cmd.add(options.getPermissionPromptToolName());
+        }
+        if (options.getPermissionMode() != null) {
+            cmd.add("--permission-mode");
+            cmd.add(options.getPermissionMode().getValue());
+        }
+        if (options.isContinueConversation()) {
+            cmd.add("--continue");
+        }
+        if (options.getResume() != null) {
+            cmd.add("--resume");
+            cmd.add(options.getResume());
+        }
+        if (options.getSettings() != null) {
+            cmd.add("--settings");
+            cmd.add(options.getSettings());
+        }
+        if (!options.getAddDirs().isEmpty()) {
+            for (Path path : options.getAddDirs()) {
+                cmd.add("--add-dir");
+                cmd.add(path.toString());
+            }
+        }
+        Object mcpServers = options.getMcpServers();
+        if (mcpServers instanceof Map<?, ?> map && !map.isEmpty()) {
+            Map<String, Object> processed = new LinkedHashMap<>();
+            map.forEach((key, value) -> {
+                if (value instanceof Map<?, ?> serverConfig) {
+                    Map<String, Object> copy = new LinkedHashMap<>();
+                    serverConfig.forEach((k, v) -> {
+                        if (!Objects.equals(k, "instance")) {
+                            copy.put(String.valueOf(k), v);
+                        }
+                    });
+                    processed.put(String.valueOf(key), copy);
+                }
+            });
+            if (!processed.isEmpty()) {
+                try {
+                    cmd.add("--mcp-config");
+                    cmd.add(JsonCodec.forOptions(options).getWriter()
+                            .writeValueAsString(Map.of("mcpServers", processed)));
+                } catch (JsonProcessingException e) {
+                    throw new ClaudeSDKException("Failed to serialize MCP configuration", e);
+                }
+            }
+        } else if (mcpServers instanceof String str && !str.isBlank()) {
+            cmd.add("--mcp-config");
+            cmd.add(str);
+        } else if (mcpServers instanceof Path path) {
+            cmd.add("--mcp-config");
+            cmd.add(path.toString());
+        }
+
+        options.getExtraArgs().forEach((flag, value) -> {
+            cmd.add("--" + flag);
+            if (value != null && !value.isBlank()) {
+                cmd.add(value);
+            }
+        });
+        return cmd;
+    }
+
+    private static Map<String, String> environment(ClaudeCodeOptions options) {
+        Map<String, String> env = new LinkedHashMap<>(options.getEnv());
+        env.put("CLAUDE_CODE_ENTRYPOINT", "sdk-java");
+        if (options.getCwd() != null) {
+            env.put("PWD", options.getCwd().toString());
+        }
+        if (options.getUser() != null) {
+            env.put("USER", options.getUser());
+        }
+        return env;
+    }
+
+    /**
+     * Options that do not change the process but do change how the SDK runs the session, so that pooled
+     * processes are only shared between equally configured clients.
+     */
+    private static List<Object> sessionSettings(ClaudeCodeOptions options) {
+        Map<HookEvent, List<HookMatcher>> hooks = null;
+        if (options.getHooks() != null) {
+            hooks = new EnumMap<>(HookEvent.class);
+            for (Map.Entry<HookEvent, List<HookMatcher>> entry : options.getHooks().entrySet()) {
+                hooks.put(entry.getKey(), List.copyOf(entry.getValue()));
+            }
+        }
+        return Arrays.asList(options.getDebugStderr(), options.getStderrCallback(), options.getStderrBufferSize(),
+                options.getCanUseTool(), hooks, options.getReadBufferSize(),
+                options.getMaxBufferSize(), options.getOversizedMessagePolicy(), options.getSpillDirectory(),
+                options.getControlExecutor(), options.getThreadMode(), options.getIoReactor(),
+                options.getMessageBufferSize(), options.getOverflowStrategy(), options.getMessageDispatcher(),
+                options.getWriteFlushLatency(), options.getJsonCodec());
+    }
+}
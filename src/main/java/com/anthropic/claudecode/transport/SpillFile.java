@@ -0,0 +1,161 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.JsonCodec;
+import com.anthropic.claudecode.messages.JsonRegionSource;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Temporary file holding an oversized CLI message or a run of spooled messages.
+ *
+ * <p>The file is deleted once neither the frame nor any payload read from it is reachable, so lazily decoded
+ * tool payloads can keep pointing into it after the message has been dispatched. Files still alive when the
+ * JVM exits are deleted by a shutdown hook.
+ */
+final class SpillFile {
+    private static final Logger LOGGER = Logger.getLogger(SpillFile.class.getName());
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final Set<Path> LIVE_FILES = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(
+                () -> LIVE_FILES.forEach(path -> new Deleter(path).run()), "claude-spill-cleanup"));
+    }
+
+    private final Path path;
+    private final JsonCodec codec;
+    private final JsonFactory factory;
+    private final Cleaner.Cleanable cleanable;
+
+    private SpillFile(Path path, JsonCodec codec) {
+        this.path = path;
+        this.codec = codec;
+        // Spilled messages are the ones with strings too long for Jackson's default limit.
+        this.factory = JsonMessageFramer.withoutStringLimit(codec.getFactory());
+        LIVE_FILES.add(path);
+        this.cleanable = CLEANER.register(this, new Deleter(path));
+    }
+
+    static SpillFile create(Path directory, JsonCodec codec) throws IOException {
+        Path file = directory != null
+                ? Files.createTempFile(directory, "claude-message-", ".json")
+                : Files.createTempFile("claude-message-", ".json");
+        return new SpillFile(file, codec);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    JsonParser openRegion(long offset, long length) throws IOException {
+        RegionStream in = openStream(offset, length);
+        try {
+            JsonParser parser = factory.createParser(in);
+            parser.setCodec(codec);
+            return parser;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private RegionStream openStream(long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+            return new RegionStream(channel, offset, length);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the file now rather than when it becomes unreachable.
+     */
+    void delete() {
+        cleanable.clean();
+    }
+
+    /**
+     * Bounded view of the file that parsers read from. Being the parser's input source, it lets payloads
+     * captured from the message refer back into the file.
+     */
+    private final class RegionStream extends InputStream implements JsonRegionSource {
+        private final FileChannel channel;
+        private final long base;
+        private final long length;
+        private long remaining;
+
+        RegionStream(FileChannel channel, long base, long length) {
+            this.channel = channel;
+            this.base = base;
+            this.length = length;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, remaining)));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public JsonParser openRegion(long offset, long length) throws IOException {
+            return SpillFile.this.openRegion(base + offset, length);
+        }
+
+        @Override
+        public InputStream openBytes(long offset) throws IOException {
+            return openStream(base + offset, length - offset);
+        }
+    }
+
+    private static final class Deleter implements Runnable {
+        private final Path path;
+
+        Deleter(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Files.deleteIfExists(path);
+                LIVE_FILES.remove(path);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete spilled message " + path, e);
+            }
+        }
+    }
+}
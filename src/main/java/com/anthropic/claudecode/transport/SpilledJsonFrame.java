@@ -0,0 +1,56 @@
+package com.anthropic.claudecode.transport;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@link JsonFrame} for a message held in a region of a temporary file, either because it outgrew the
+ * in-memory buffer or because it was spooled while consumers were behind.
+ */
+final class SpilledJsonFrame implements JsonFrame {
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final SpillFile file;
+    private final long offset;
+    private final long length;
+    private final String type;
+    private final long size;
+
+    SpilledJsonFrame(SpillFile file, long offset, long length, String type, long size) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.type = type;
+        this.size = size;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean isSpilled() {
+        return true;
+    }
+
+    @Override
+    public JsonParser open() throws IOException {
+        return file.openRegion(offset, length);
+    }
+
+    @Override
+    public Map<String, Object> toMap() throws IOException {
+        try (JsonParser parser = open()) {
+            return parser.readValueAs(MAP_TYPE);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.anthropic.claudecode.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Continuously drains the CLI's stderr so a chatty process can never block on a full pipe.
+ *
+ * <p>Output is forwarded verbatim to an optional debug stream, split into lines for an optional callback, and
+ * the most recent bytes are kept in a fixed-size ring so that {@link #tail()} can be attached to process
+ * errors after the fact.
+ */
+final class StderrPump implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(StderrPump.class.getName());
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final InputStream stderr;
+    private final Consumer<String> lineCallback;
+    private final byte[] ring;
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    private OutputStream debugStream;
+
+    private long written;
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    StderrPump(InputStream stderr, OutputStream debugStream, Consumer<String> lineCallback, int tailSize) {
+        this.stderr = stderr;
+        this.debugStream = debugStream;
+        this.lineCallback = lineCallback;
+        this.ring = new byte[Math.max(tailSize, 1)];
+    }
+
+    @Override
+    public void run() {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try {
+            int read;
+            while ((read = stderr.read(chunk, 0, chunk.length)) != -1) {
+                accept(chunk, read);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Stopped reading CLI stderr", e);
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Processes a chunk read from stderr. Used directly when an {@link IoReactor} reads the stream.
+     */
+    void accept(byte[] chunk, int length) {
+        forward(chunk, length);
+        synchronized (this) {
+            append(chunk, length);
+        }
+        if (lineCallback != null) {
+            splitLines(chunk, length);
+        }
+    }
+
+    /**
+     * Flushes a trailing partial line and marks stderr as fully drained.
+     */
+    void finish() {
+        if (lineCallback != null && lineLength > 0) {
+            emitLine();
+        }
+        finished.complete(null);
+    }
+
+    /**
+     * Waits until stderr has reached end-of-file, so that {@link #tail()} is complete.
+     */
+    boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            finished.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a future that completes once stderr has reached end-of-file, for callers that must not block.
+     */
+    CompletableFuture<Void> completion() {
+        return finished.copy();
+    }
+
+    /**
+     * Returns the most recently captured stderr output, starting at a line boundary if older output was dropped.
+     */
+    synchronized String tail() {
+        int capacity = ring.length;
+        if (written <= capacity) {
+            return new String(ring, 0, (int) written, StandardCharsets.UTF_8);
+        }
+        int start = (int) (written % capacity);
+        byte[] ordered = new byte[capacity];
+        System.arraycopy(ring, start, ordered, 0, capacity - start);
+        System.arraycopy(ring, 0, ordered, capacity - start, start);
+        int from = 0;
+        while (from < capacity && ordered[from] != '\n') {
+            from++;
+        }
+        from = from < capacity ? from + 1 : 0;
+        return new String(ordered, from, capacity - from, StandardCharsets.UTF_8);
+    }
+
+    private void forward(byte[] chunk, int length) {
+        if (debugStream == null) {
+            return;
+        }
+        try {
+            debugStream.write(chunk, 0, length);
+            debugStream.flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to forward CLI stderr; further output will not be forwarded", e);
+            debugStream = null;
+        }
+    }
+
+    private void append(byte[] chunk, int length) {
+        int capacity = ring.length;
+        int offset = length > capacity ? length - capacity : 0;
+        long position = written + offset;
+        for (int i = offset; i < length; ) {
+            int index = (int) (position % capacity);
+            int count = Math.min(length - i, capacity - index);
+            System.arraycopy(chunk, i, ring, index, count);
+            i += count;
+            position += count;
+        }
+        written += length;
+    }
+
+    private void splitLines(byte[] chunk, int length) {
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (chunk[i] == '\n') {
+                appendLine(chunk, start, i - start);
+                emitLine();
+                start = i + 1;
+            }
+        }
+        appendLine(chunk, start, length - start);
+        // A line longer than the tail buffer is delivered in pieces rather than buffered without bound.
+        if (lineLength >= ring.length) {
+            emitLine();
+        }
+    }
+
+    private void appendLine(byte[] chunk, int offset, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(chunk, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void emitLine() {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        String text = new String(line, 0, length, StandardCharsets.UTF_8);
+        lineLength = 0;
+        try {
+            lineCallback.accept(text);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "stderr callback failed", e);
+        }
+    }
+}
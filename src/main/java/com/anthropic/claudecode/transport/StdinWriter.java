@@ -0,0 +1,437 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.JsonCodec;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Writes to the CLI's stdin from a single thread.
+ *
+ * <p>Callers queue encoded messages and return without waiting for the pipe. The writer copies everything that
+ * is queued into one buffer and flushes once per batch, so concurrent control responses and streamed input
+ * share pipe writes instead of contending for the stream. With a non-zero flush latency the writer waits up
+ * to that long after a batch's first message for more to arrive. The writer thread starts with the first
+ * message, so a transport that never writes never starts it.
+ *
+ * <p>Messages may be queued as encoded lines, as encoded JSON without the newline, or as objects that the
+ * writer serializes with a JSON generator straight into its buffer, so even large prompts are never
+ * materialized as a string or a separate byte array.
+ */
+final class StdinWriter implements Runnable {
+    private static final int MAX_QUEUED = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Object END = new Object();
+    private static final int ENDING = 1 << 30;
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final OutputStream out;
+    private final JsonCodec codec;
+    private final long flushLatencyNanos;
+    private final ThreadFactory threadFactory;
+    private final Consumer<IOException> failureListener;
+    private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    // Producers between enter() and queueing their message, plus the ENDING bit once end() has begun.
+    private final AtomicInteger producers = new AtomicInteger();
+    private final Semaphore capacity = new Semaphore(MAX_QUEUED);
+    private final CompletableFuture<Void> ended = new CompletableFuture<>();
+    private volatile Thread thread;
+    private volatile IOException failure;
+    private volatile boolean ending;
+    private volatile boolean closed;
+    // Used only by the writer thread; the counters are read by others.
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int buffered;
+    private final OutputStream sink = new BufferSink();
+    private volatile long writeCount;
+    private volatile long messageCount;
+
+    StdinWriter(OutputStream out, JsonCodec codec, Duration flushLatency, ThreadFactory threadFactory,
+                Consumer<IOException> failureListener) {
+        this.out = out;
+        this.codec = codec;
+        this.flushLatencyNanos = flushLatency.toNanos();
+        this.threadFactory = threadFactory;
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Queues one encoded line, including its newline. Blocks only while the queue is full.
+     *
+     * @throws IOException if input has ended or an earlier write failed
+     */
+    void write(byte[] line) throws IOException {
+        enqueue(line);
+    }
+
+    /**
+     * Queues the remaining bytes of {@code json}, which the writer follows with a newline. The buffer's
+     * position is left unchanged, but its contents must not change until the message has been written.
+     */
+    void write(ByteBuffer json) throws IOException {
+        enqueue(json.duplicate());
+    }
+
+    /**
+     * Queues {@code message} for serialization on the writer thread. It must not be modified afterwards. The
+     * returned future completes once the message is encoded into the write buffer, or fails with a
+     * {@link JsonProcessingException} if it cannot be encoded, or with another {@link IOException} if it is
+     * discarded because writing failed or stdin was closed.
+     */
+    CompletableFuture<Void> writeMessage(Object message) throws IOException {
+        Value value = new Value(message, new CompletableFuture<>());
+        enqueue(value);
+        return value.encoded();
+    }
+
+    private void enqueue(Object item) throws IOException {
+        checkWritable();
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to write to CLI stdin");
+        }
+        if (!enter()) {
+            capacity.release();
+            throw new IOException("CLI stdin is closed");
+        }
+        try {
+            checkOpen();
+            ensureStarted();
+            int previousDepth = depth.getAndIncrement();
+            queue.offer(item);
+            if (previousDepth == 0) {
+                LockSupport.unpark(thread);
+            }
+        } catch (IOException e) {
+            capacity.release();
+            throw e;
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Registers a producer about to queue a message. Fails once {@link #end()} has begun, so that every message
+     * is either queued before the end marker or rejected.
+     */
+    private boolean enter() {
+        int state;
+        do {
+            state = producers.get();
+            if ((state & ENDING) != 0) {
+                return false;
+            }
+        } while (!producers.compareAndSet(state, state + 1));
+        return true;
+    }
+
+    /**
+     * Closes stdin once every queued message has been written, and waits for that to happen. Writes that have
+     * not been queued by then are rejected.
+     */
+    void end() throws IOException {
+        synchronized (this) {
+            if (ending) {
+                return;
+            }
+            ending = true;
+        }
+        producers.getAndUpdate(state -> state | ENDING);
+        // Producers past enter() only queue their message, which takes no time.
+        while ((producers.get() & ~ENDING) != 0) {
+            Thread.onSpinWait();
+        }
+        Thread writer;
+        synchronized (this) {
+            writer = thread;
+            if (writer == null) {
+                out.close();
+                return;
+            }
+        }
+        depth.incrementAndGet();
+        queue.offer(END);
+        LockSupport.unpark(writer);
+        try {
+            ended.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing CLI stdin");
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    /**
+     * Discards queued messages and closes stdin without waiting for the writer.
+     */
+    void close() {
+        closed = true;
+        ended.completeExceptionally(new IOException("CLI stdin is closed"));
+        // Wake producers blocked on a full queue so they see the close.
+        capacity.release(MAX_QUEUED);
+        Thread current;
+        synchronized (this) {
+            current = thread;
+        }
+        if (current != null) {
+            // The writer closes the stream itself; closing it here could block behind a write to a full pipe.
+            LockSupport.unpark(current);
+        } else {
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Returns the number of messages queued but not yet written.
+     */
+    int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns the number of writes to the pipe, each carrying one or more messages.
+     */
+    long getWriteCount() {
+        return writeCount;
+    }
+
+    long getMessageCount() {
+        return messageCount;
+    }
+
+    @Override
+    public void run() {
+        long flushDeadline = 0;
+        boolean unflushed = false;
+        try {
+            while (!closed) {
+                Object item = queue.poll();
+                if (item == null) {
+                    if (depth.get() != 0) {
+                        // A producer has counted its message but not queued it yet. It only unparks the writer
+                        // when the depth was zero, so parking now could miss its message.
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    if (!unflushed) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    long remaining = flushDeadline - System.nanoTime();
+                    if (remaining > 0) {
+                        LockSupport.parkNanos(this, remaining);
+                        continue;
+                    }
+                    flushBuffer();
+                    unflushed = false;
+                    continue;
+                }
+                depth.decrementAndGet();
+                if (item == END) {
+                    flushBuffer();
+                    out.close();
+                    ended.complete(null);
+                    return;
+                }
+                if (!unflushed) {
+                    flushDeadline = System.nanoTime() + flushLatencyNanos;
+                    unflushed = true;
+                }
+                if (item instanceof byte[] line) {
+                    append(line, 0, line.length);
+                } else if (item instanceof ByteBuffer json) {
+                    append(json);
+                    append(NEWLINE, 0, 1);
+                } else {
+                    serialize((Value) item);
+                }
+                messageCount++;
+                capacity.release();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                fail(e);
+            }
+        } catch (RuntimeException | Error e) {
+            // Without this, producers would block on a full queue and end() would wait forever.
+            if (!closed) {
+                fail(new IOException("CLI stdin writer failed", e));
+            }
+            throw e;
+        } finally {
+            discardQueued(new IOException("CLI stdin is closed"));
+            capacity.release(MAX_QUEUED);
+            closeQuietly();
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - buffered) {
+            flushBuffer();
+        }
+        if (length > buffer.length) {
+            out.write(bytes, offset, length);
+            writeCount++;
+        } else {
+            System.arraycopy(bytes, offset, buffer, buffered, length);
+            buffered += length;
+        }
+    }
+
+    private void append(ByteBuffer json) throws IOException {
+        if (json.hasArray()) {
+            append(json.array(), json.arrayOffset() + json.position(), json.remaining());
+            return;
+        }
+        while (json.hasRemaining()) {
+            if (buffered == buffer.length) {
+                flushBuffer();
+            }
+            int length = Math.min(json.remaining(), buffer.length - buffered);
+            json.get(buffer, buffered, length);
+            buffered += length;
+        }
+    }
+
+    /**
+     * Serializes a message into the buffer, which is written out whenever it fills. A message that cannot be
+     * encoded fails its future and is dropped if none of it has reached the pipe yet; otherwise the stream is
+     * corrupt and the failure ends writing. Any other failure also fails the future before ending writing.
+     */
+    private void serialize(Value value) throws IOException {
+        int mark = buffered;
+        long writesBefore = writeCount;
+        try {
+            try {
+                codec.writeValue(sink, value.message());
+            } catch (JsonProcessingException | RuntimeException e) {
+                // Serializers may throw unchecked exceptions that Jackson does not wrap.
+                JsonProcessingException failure = e instanceof JsonProcessingException encoding
+                        ? encoding
+                        : JsonMappingException.from((JsonGenerator) null, "Failed to encode message", e);
+                value.encoded().completeExceptionally(failure);
+                if (writeCount != writesBefore) {
+                    throw failure;
+                }
+                buffered = mark;
+                return;
+            }
+            append(NEWLINE, 0, 1);
+        } catch (IOException | Error e) {
+            value.encoded().completeExceptionally(e);
+            throw e;
+        }
+        value.encoded().complete(null);
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffered > 0) {
+            out.write(buffer, 0, buffered);
+            buffered = 0;
+            writeCount++;
+        }
+        out.flush();
+    }
+
+    private void fail(IOException e) {
+        failure = e;
+        ended.completeExceptionally(e);
+        discardQueued(e);
+        // Wake producers blocked on a full queue so they see the failure.
+        capacity.release(MAX_QUEUED);
+        failureListener.accept(e);
+    }
+
+    private void checkWritable() throws IOException {
+        checkOpen();
+        if (ending) {
+            throw new IOException("CLI stdin is closed");
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new IOException("An earlier write to CLI stdin failed", failed);
+        }
+        if (closed) {
+            throw new IOException("CLI stdin is closed");
+        }
+    }
+
+    /**
+     * Starts the writer thread. Called only by registered producers, so {@link #end()} sees a writer started
+     * for any message queued before it.
+     */
+    private void ensureStarted() {
+        if (thread != null) {
+            return;
+        }
+        synchronized (this) {
+            if (thread == null) {
+                Thread writer = threadFactory.newThread(this);
+                thread = writer;
+                writer.start();
+            }
+        }
+    }
+
+    /**
+     * Drops the messages still queued, failing the futures of those queued as objects.
+     */
+    private void discardQueued(IOException cause) {
+        Object item;
+        while ((item = queue.poll()) != null) {
+            if (item instanceof Value value) {
+                value.encoded().completeExceptionally(cause);
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private record Value(Object message, CompletableFuture<Void> encoded) {
+    }
+
+    /**
+     * Lets a generator write into the batch buffer. Flushes are ignored; the writer decides when to flush.
+     */
+    private final class BufferSink extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            if (buffered == buffer.length) {
+                flushBuffer();
+            }
+            buffer[buffered++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            append(bytes, offset, length);
+        }
+    }
+}
@@ -1,33 +1,30 @@
 package com.anthropic.claudecode.transport;
 
 import com.anthropic.claudecode.ClaudeCodeOptions;
+import com.anthropic.claudecode.JsonCodec;
+import com.anthropic.claudecode.ThreadMode;
 import com.anthropic.claudecode.exceptions.CLIConnectionError;
 import com.anthropic.claudecode.exceptions.CLIJSONDecodeError;
-import com.anthropic.claudecode.exceptions.CLINotFoundError;
 import com.anthropic.claudecode.exceptions.ClaudeSDKException;
 import com.anthropic.claudecode.exceptions.ProcessError;
+import com.anthropic.claudecode.internal.ThreadSupport;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
+import java.time.Duration;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,219 +34,202 @@ import java.util.logging.Logger;
  */
 public class SubprocessCLITransport implements Transport {
     private static final Logger LOGGER = Logger.getLogger(SubprocessCLITransport.class.getName());
-    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    private static final Duration STDERR_DRAIN_TIMEOUT = Duration.ofSeconds(1);
+    private static final Duration EXIT_AFTER_READ_FAILURE_TIMEOUT = Duration.ofSeconds(1);
 
     private final boolean streaming;
     private final String prompt;
     private final ClaudeCodeOptions options;
-    private final String cliPath;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final CliResolver.Resolution cli;
+    private final LaunchSpec spec;
+    private final JsonCodec codec;
 
     private Process process;
-    private BufferedWriter stdin;
-    private BufferedReader stdout;
+    private StdinWriter stdin;
+    private InputStream stdout;
     private Transport.MessageHandler handler;
     private final AtomicBoolean ready = new AtomicBoolean();
     private final AtomicBoolean closed = new AtomicBoolean();
-    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
-        Thread thread = new Thread(r, "claude-cli-reader");
-        thread.setDaemon(true);
-        return thread;
-    });
+    private ExecutorService readerExecutor;
+    private final IoReactor reactor;
     private Future<?> readerTask;
+    private volatile IoReactor.Registration stdoutRegistration;
+    private IoReactor.Registration stderrRegistration;
+    private final Object readGate = new Object();
+    private boolean readingPaused;
+    private StderrPump stderrPump;
+    private JsonMessageFramer pullFramer;
+    private byte[] pullChunk;
     private volatile ClaudeSDKException exitError;
+    private volatile Exception readFailure;
 
     public SubprocessCLITransport(boolean streaming, String prompt, ClaudeCodeOptions options)
             throws ClaudeSDKException {
         this.streaming = streaming;
         this.prompt = prompt;
         this.options = options;
-        this.cliPath = locateCli();
-    }
-
-    private String locateCli() throws CLINotFoundError {
-        String which = System.getenv().getOrDefault("CLAUDE_CODE_CLI_PATH", "");
-        if (!which.isBlank()) {
-            return which;
-        }
-        String systemWhich = findExecutableOnPath("claude");
-        if (systemWhich != null) {
-            return systemWhich;
-        }
-        List<Path> locations = List.of(
-                Path.of(System.getProperty("user.home"), ".npm-global/bin/claude"),
-                Path.of("/usr/local/bin/claude"),
-                Path.of(System.getProperty("user.home"), ".local/bin/claude"),
-                Path.of(System.getProperty("user.home"), "node_modules/.bin/claude"),
-                Path.of(System.getProperty("user.home"), ".yarn/bin/claude"));
-        for (Path path : locations) {
-            if (path.toFile().isFile()) {
-                return path.toAbsolutePath().toString();
-            }
-        }
-        boolean nodeInstalled = findExecutableOnPath("node") != null;
-        if (!nodeInstalled) {
-            throw new CLINotFoundError(
-                    "Claude Code requires Node.js. Install Node.js and @anthropic-ai/claude-code.");
-        }
-        throw new CLINotFoundError(
-                "Claude Code CLI not found. Install with 'npm install -g @anthropic-ai/claude-code'.");
+        this.codec = JsonCodec.forOptions(options);
+        this.cli = CliResolver.resolve(options.getCliPath());
+        this.spec = options.toLaunchSpec();
+        this.reactor = reactorFor(options);
     }
 
-    private String findExecutableOnPath(String name) {
-        String path = System.getenv("PATH");
-        if (path == null) {
-            return null;
+    /**
+     * Returns the configured reactor, or the shared one when virtual threads are in use and none is configured.
+     */
+    private static IoReactor reactorFor(ClaudeCodeOptions options) {
+        if (options.getIoReactor() != null) {
+            return options.getIoReactor();
         }
-        String[] parts = path.split(System.getProperty("path.separator"));
-        for (String dir : parts) {
-            Path candidate = Path.of(dir, name);
-            if (candidate.toFile().canExecute()) {
-                return candidate.toAbsolutePath().toString();
-            }
+        if (options.getThreadMode() == ThreadMode.VIRTUAL && ThreadSupport.isVirtualThreadSupported()) {
+            return IoReactor.shared();
         }
         return null;
     }
 
-    private List<String> buildCommand() throws ClaudeSDKException {
-        List<String> cmd = new ArrayList<>();
-        cmd.add(cliPath);
-        cmd.add("--output-format");
-        cmd.add("stream-json");
-        cmd.add("--verbose");
-
-        if (options.getSystemPrompt() != null) {
-            cmd.add("--system-prompt");
-            cmd.add(options.getSystemPrompt());
-        }
-        if (options.getAppendSystemPrompt() != null) {
-            cmd.add("--append-system-prompt");
-            cmd.add(options.getAppendSystemPrompt());
-        }
-        if (!options.getAllowedTools().isEmpty()) {
-            cmd.add("--allowedTools");
-            cmd.add(String.join(",", options.getAllowedTools()));
-        }
-        if (options.getMaxTurns() != null) {
-            cmd.add("--max-turns");
-            cmd.add(String.valueOf(options.getMaxTurns()));
-        }
-        if (!options.getDisallowedTools().isEmpty()) {
-            cmd.add("--disallowedTools");
-            cmd.add(String.join(",", options.getDisallowedTools()));
-        }
-        if (options.getModel() != null) {
-            cmd.add("--model");
-            cmd.add(options.getModel());
-        }
-        if (options.getPermissionPromptToolName() != null) {
-            cmd.add("--permission-prompt-tool");
-            cmd.add(options.getPermissionPromptToolName());
-        }
-        if (options.getPermissionMode() != null) {
-            cmd.add("--permission-mode");
-            cmd.add(options.getPermissionMode().getValue());
-        }
-        if (options.isContinueConversation()) {
-            cmd.add("--continue");
-        }
-        if (options.getResume() != null) {
-            cmd.add("--resume");
-            cmd.add(options.getResume());
-        }
-        if (options.getSettings() != null) {
-            cmd.add("--settings");
-            cmd.add(options.getSettings());
+    @Override
+    public void connect() throws ClaudeSDKException {
+        if (process != null) {
+            return;
         }
-        if (!options.getAddDirs().isEmpty()) {
-            for (Path path : options.getAddDirs()) {
-                cmd.add("--add-dir");
-                cmd.add(path.toString());
+        ProcessBuilder builder = new ProcessBuilder(spec.command(cli.getPath().toString(), streaming, prompt));
+        spec.applyTo(builder);
+        try {
+            process = builder.start();
+            if (process.getOutputStream() != null) {
+                stdin = new StdinWriter(
+                        process.getOutputStream(),
+                        codec,
+                        options.getWriteFlushLatency(),
+                        ThreadSupport.threadFactory("claude-cli-writer", options.getThreadMode()),
+                        this::onWriteFailure);
             }
-        }
-        Object mcpServers = options.getMcpServers();
-        if (mcpServers instanceof Map<?, ?> map && !map.isEmpty()) {
-            Map<String, Object> processed = new LinkedHashMap<>();
-            map.forEach((key, value) -> {
-                if (value instanceof Map<?, ?> serverConfig) {
-                    Map<String, Object> copy = new LinkedHashMap<>();
-                    serverConfig.forEach((k, v) -> {
-                        if (!Objects.equals(k, "instance")) {
-                            copy.put(String.valueOf(k), v);
-                        }
-                    });
-                    processed.put(String.valueOf(key), copy);
-                }
-            });
-            if (!processed.isEmpty()) {
+            stdout = process.getInputStream();
+            stderrPump = new StderrPump(
+                    process.getErrorStream(),
+                    options.getDebugStderr(),
+                    options.getStderrCallback(),
+                    options.getStderrBufferSize());
+            if (reactor != null) {
                 try {
-                    cmd.add("--mcp-config");
-                    cmd.add(mapper.writeValueAsString(Map.of("mcpServers", processed)));
-                } catch (JsonProcessingException e) {
-                    throw new ClaudeSDKException("Failed to serialize MCP configuration", e);
+                    stderrRegistration = reactor.register(
+                            process.getErrorStream(), new StderrHandler(stderrPump), process::isAlive);
+                } catch (IllegalStateException e) {
+                    abandonProcess();
+                    throw new CLIConnectionError("Failed to start Claude Code CLI", e);
                 }
+                process.onExit().thenRun(stderrRegistration::expectData);
+            } else {
+                ThreadSupport.platformThreadFactory("claude-cli-stderr")
+                        .newThread(stderrPump)
+                        .start();
             }
-        } else if (mcpServers instanceof String str && !str.isBlank()) {
-            cmd.add("--mcp-config");
-            cmd.add(str);
-        } else if (mcpServers instanceof Path path) {
-            cmd.add("--mcp-config");
-            cmd.add(path.toString());
-        }
-
-        options.getExtraArgs().forEach((flag, value) -> {
-            cmd.add("--" + flag);
-            if (value != null && !value.isBlank()) {
-                cmd.add(value);
-            }
-        });
+            ready.set(true);
+        } catch (IOException e) {
+            throw new CLIConnectionError("Failed to start Claude Code CLI", e);
+        }
+    }
 
-        if (streaming) {
-            cmd.add("--input-format");
-            cmd.add("stream-json");
-        } else if (prompt != null) {
-            cmd.add("--print");
-            cmd.add("--");
-            cmd.add(prompt);
+    /**
+     * Stops a process whose output cannot be read, so that a failed {@link #connect()} leaves nothing running.
+     */
+    private void abandonProcess() {
+        if (stdin != null) {
+            stdin.close();
+            stdin = null;
         }
-        return cmd;
+        process.destroy();
+        process = null;
     }
 
+    /**
+     * Queues {@code data} for the writer thread and returns without waiting for the pipe. Messages from
+     * concurrent callers are written in the order they are queued, and a failure to write one is reported by
+     * the next write, {@link #endInput()} or {@link #close()}.
+     */
     @Override
-    public void connect() throws ClaudeSDKException {
-        if (process != null) {
-            return;
-        }
-        List<String> command = buildCommand();
-        ProcessBuilder builder = new ProcessBuilder(command);
-        if (options.getCwd() != null) {
-            builder.directory(options.getCwd().toFile());
-        }
-        Map<String, String> env = builder.environment();
-        env.putAll(System.getenv());
-        env.putAll(options.getEnv());
-        env.put("CLAUDE_CODE_ENTRYPOINT", "sdk-java");
-        if (options.getCwd() != null) {
-            env.put("PWD", options.getCwd().toString());
+    public void write(String data) throws ClaudeSDKException {
+        checkWritable();
+        try {
+            stdin.write(data.getBytes(StandardCharsets.UTF_8));
+            expectOutput();
+        } catch (IOException e) {
+            throw new CLIConnectionError("Failed to write to process stdin", e);
         }
-        if (options.getUser() != null) {
-            builder.environment().put("USER", options.getUser());
+    }
+
+    /**
+     * Queues {@code message} for the writer thread, which serializes it directly into the stdin buffer. A
+     * message that turns out not to be encodable is logged and dropped; use {@link #writeMessageAsync(Object)}
+     * to be told.
+     */
+    @Override
+    public void writeMessage(Object message) throws ClaudeSDKException {
+        checkWritable();
+        try {
+            stdin.writeMessage(message).whenComplete((ignored, error) -> {
+                if (error instanceof JsonProcessingException) {
+                    LOGGER.log(Level.WARNING, "Dropped message that could not be encoded as JSON", error);
+                }
+            });
+            expectOutput();
+        } catch (IOException e) {
+            throw new CLIConnectionError("Failed to write to process stdin", e);
         }
+    }
+
+    /**
+     * Queues {@code message} like {@link #writeMessage(Object)}. The future completes when the writer thread
+     * has encoded the message, and fails with a {@link CLIConnectionError} if it cannot be encoded or is
+     * discarded because stdin failed or was closed.
+     */
+    @Override
+    public CompletableFuture<Void> writeMessageAsync(Object message) {
+        CompletableFuture<Void> encoded;
         try {
-            process = builder.start();
-            if (process.getOutputStream() != null) {
-                stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            checkWritable();
+            encoded = stdin.writeMessage(message);
+            expectOutput();
+        } catch (ClaudeSDKException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new CLIConnectionError("Failed to write to process stdin", e));
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        encoded.whenComplete((ignored, error) -> {
+            if (error == null) {
+                result.complete(null);
+            } else if (error instanceof JsonProcessingException || !(error instanceof IOException)) {
+                result.completeExceptionally(new CLIConnectionError("Failed to encode message", error));
+            } else {
+                result.completeExceptionally(new CLIConnectionError("Failed to write to process stdin", error));
             }
-            InputStream stdoutStream = process.getInputStream();
-            stdout = new BufferedReader(new InputStreamReader(stdoutStream, StandardCharsets.UTF_8));
-            ready.set(true);
+        });
+        return result;
+    }
+
+    @Override
+    public void write(ByteBuffer json) throws ClaudeSDKException {
+        checkWritable();
+        try {
+            stdin.write(json);
+            expectOutput();
         } catch (IOException e) {
-            throw new CLIConnectionError("Failed to start Claude Code CLI", e);
+            throw new CLIConnectionError("Failed to write to process stdin", e);
         }
     }
 
-    @Override
-    public synchronized void write(String data) throws ClaudeSDKException {
+    /**
+     * Tells a reactor that has slowed down on a quiet stdout that the CLI is about to answer.
+     */
+    private void expectOutput() {
+        IoReactor.Registration registration = stdoutRegistration;
+        if (registration != null) {
+            registration.expectData();
+        }
+    }
+
+    private void checkWritable() throws ClaudeSDKException {
         if (!ready.get() || stdin == null) {
             throw new CLIConnectionError("ProcessTransport is not ready for writing");
         }
@@ -259,120 +239,346 @@ public class SubprocessCLITransport implements Transport {
         if (exitError != null) {
             throw new CLIConnectionError("Process exited with error", exitError);
         }
-        try {
-            stdin.write(data);
-            stdin.flush();
-        } catch (IOException e) {
-            ready.set(false);
-            exitError = new CLIConnectionError("Failed to write to process stdin", e);
-            throw exitError;
-        }
     }
 
+    /**
+     * Closes stdin after every queued message has been written.
+     */
     @Override
-    public synchronized void endInput() throws ClaudeSDKException {
+    public void endInput() throws ClaudeSDKException {
         if (stdin != null) {
             try {
-                stdin.close();
+                stdin.end();
             } catch (IOException e) {
                 throw new CLIConnectionError("Failed to close stdin", e);
-            } finally {
-                stdin = null;
             }
         }
     }
 
+    /**
+     * Returns the number of messages queued for stdin but not yet written.
+     */
+    public int getWriteQueueDepth() {
+        return stdin == null ? 0 : stdin.getQueueDepth();
+    }
+
+    /**
+     * Returns the number of messages written to stdin. Compared with {@link #getStdinWriteCount()} this shows
+     * how well writes are being coalesced.
+     */
+    public long getWrittenMessageCount() {
+        return stdin == null ? 0 : stdin.getMessageCount();
+    }
+
+    /**
+     * Returns the number of writes to the stdin pipe, each carrying one or more messages.
+     */
+    public long getStdinWriteCount() {
+        return stdin == null ? 0 : stdin.getWriteCount();
+    }
+
+    private void onWriteFailure(IOException e) {
+        ready.set(false);
+        exitError = new CLIConnectionError("Failed to write to process stdin", e);
+    }
+
+    /**
+     * Returns the version of the CLI this transport runs, or {@code null} if it cannot be determined. The CLI
+     * is asked once per installed binary; later calls, from any transport, return the cached answer.
+     */
+    public String getCliVersion() {
+        return cli.version();
+    }
+
     @Override
     public boolean isReady() {
-        return ready.get();
+        return ready.get() && process != null && process.isAlive();
     }
 
     @Override
     public void readMessages(MessageHandler handler) {
         this.handler = handler;
-        readerTask = executor.submit(this::readLoop);
+        if (reactor == null) {
+            // Pipe reads block inside the kernel, so they never run on virtual threads; see ThreadMode#VIRTUAL.
+            readerExecutor = Executors.newSingleThreadExecutor(
+                    ThreadSupport.platformThreadFactory("claude-cli-reader"));
+            readerTask = readerExecutor.submit(this::readLoop);
+            return;
+        }
+        JsonMessageFramer framer;
+        try {
+            framer = newFramer();
+        } catch (IOException e) {
+            reportReadFailure(e);
+            finishReadingAsync(false);
+            return;
+        }
+        try {
+            stdoutRegistration = reactor.register(stdout, new StdoutHandler(framer), process::isAlive);
+        } catch (IllegalStateException e) {
+            try {
+                framer.close();
+            } catch (IOException ignored) {
+            }
+            reportReadFailure(new CLIConnectionError("Failed to read Claude Code CLI output", e));
+            finishReadingAsync(false);
+            return;
+        }
+        // Once the process exits the rest of its output can be read at once, so do not wait for the next poll.
+        IoReactor.Registration registration = stdoutRegistration;
+        process.onExit().thenRun(registration::expectData);
+        // The event loop may have delivered output and been asked to pause before the field was assigned.
+        synchronized (readGate) {
+            stdoutRegistration.setPaused(readingPaused);
+        }
+    }
+
+    private JsonMessageFramer newFramer() throws IOException {
+        return new JsonMessageFramer(
+                codec,
+                options.getMaxBufferSize(),
+                options.getOversizedMessagePolicy(),
+                options.getSpillDirectory());
     }
 
     private void readLoop() {
-        StringBuilder buffer = new StringBuilder();
+        boolean endOfOutput = false;
+        try (JsonMessageFramer framer = newFramer()) {
+            JsonMessageFramer.FrameListener listener = this::dispatchFrame;
+            // The framer consumes each chunk fully before returning, so one buffer serves the whole session.
+            byte[] chunk = new byte[options.getReadBufferSize()];
+            int read;
+            while (awaitReadingResumed() && (read = stdout.read(chunk, 0, chunk.length)) != -1) {
+                framer.feed(chunk, 0, read, listener);
+            }
+            if (closed.get()) {
+                return;
+            }
+            if (framer.hasPartialMessage()) {
+                LOGGER.fine("Discarding incomplete JSON message at end of CLI output");
+            }
+            endOfOutput = true;
+        } catch (IOException | ClaudeSDKException e) {
+            reportReadFailure(e);
+        } finally {
+            finishReading(endOfOutput);
+        }
+    }
+
+    /**
+     * Reads the CLI's output on the calling thread instead of a reader thread. Each call blocks until one chunk
+     * has been read and passes the messages it completes to {@code handler}. At end of output the exit status
+     * is reported as with {@link #readMessages(MessageHandler)}, and {@code false} is returned; failures are
+     * reported to {@code handler} and also end reading.
+     */
+    public boolean readNext(MessageHandler handler) {
+        this.handler = handler;
+        boolean endOfOutput = false;
         try {
-            String line;
-            while ((line = stdout.readLine()) != null) {
-                String trimmed = line.trim();
-                if (trimmed.isEmpty()) {
-                    continue;
-                }
-                if (buffer.length() + trimmed.length() > MAX_BUFFER_SIZE) {
-                    buffer.setLength(0);
-                    throw new CLIJSONDecodeError(
-                            "JSON message exceeded maximum buffer size of " + MAX_BUFFER_SIZE + " bytes");
-                }
-                buffer.append(trimmed);
+            if (pullFramer == null) {
+                pullFramer = newFramer();
+                pullChunk = new byte[options.getReadBufferSize()];
+            }
+            int read = stdout.read(pullChunk, 0, pullChunk.length);
+            if (read != -1) {
+                pullFramer.feed(pullChunk, 0, read, this::dispatchFrame);
+                return true;
+            }
+            if (pullFramer.hasPartialMessage()) {
+                LOGGER.fine("Discarding incomplete JSON message at end of CLI output");
+            }
+            endOfOutput = true;
+        } catch (IOException | ClaudeSDKException e) {
+            reportReadFailure(e);
+        }
+        if (pullFramer != null) {
+            try {
+                pullFramer.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close message framer", e);
+            }
+        }
+        if (!closed.get()) {
+            finishReading(endOfOutput);
+        }
+        return false;
+    }
+
+    @Override
+    public void pauseReading() {
+        synchronized (readGate) {
+            readingPaused = true;
+            if (stdoutRegistration != null) {
+                stdoutRegistration.setPaused(true);
+            }
+        }
+    }
+
+    @Override
+    public void resumeReading() {
+        synchronized (readGate) {
+            readingPaused = false;
+            readGate.notifyAll();
+            if (stdoutRegistration != null) {
+                stdoutRegistration.setPaused(false);
+            }
+        }
+    }
+
+    /**
+     * Blocks the reader thread while reading is paused. Returns {@code false} if the transport was closed.
+     */
+    private boolean awaitReadingResumed() throws InterruptedIOException {
+        synchronized (readGate) {
+            while (readingPaused && !closed.get()) {
                 try {
-                    Map<String, Object> message = mapper.readValue(buffer.toString(), new TypeReference<>() {});
-                    buffer.setLength(0);
-                    if (handler != null) {
-                        handler.onMessage(message);
-                    }
-                } catch (JsonProcessingException e) {
-                    // Wait for more data
-                    continue;
+                    readGate.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading was paused");
                 }
             }
+        }
+        return !closed.get();
+    }
+
+    private void reportReadFailure(Exception e) {
+        if (e instanceof CLIJSONDecodeError decodeError) {
+            exitError = decodeError;
             if (handler != null) {
-                handler.onClosed();
+                handler.onError(decodeError);
             }
-        } catch (CLIJSONDecodeError e) {
-            exitError = e;
+        } else if (e instanceof JsonProcessingException) {
+            exitError = new CLIJSONDecodeError("Failed to decode JSON message from CLI", e);
             if (handler != null) {
-                handler.onError(e);
+                handler.onError(exitError);
             }
-        } catch (IOException e) {
-            if (closed.get()) {
-                return;
+        } else if (!closed.get()) {
+            // Reported once the exit status is known: a read usually fails because the CLI died.
+            readFailure = e;
+        }
+    }
+
+    private void finishReading(boolean endOfOutput) {
+        Exception failure = readFailure;
+        if (failure != null) {
+            try {
+                process.waitFor(EXIT_AFTER_READ_FAILURE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            if (handler != null) {
-                handler.onError(new CLIConnectionError("Failed to read from CLI", e));
+            reportFailedRead(failure);
+            return;
+        }
+        // At end of output, wait for the exit status first so that a crash is reported as a ProcessError
+        // instead of a clean close.
+        if (!checkExitCode() && endOfOutput && handler != null) {
+            handler.onClosed();
+        }
+    }
+
+    /**
+     * Variant of {@link #finishReading(boolean)} for reactor mode, which must not block an event loop on the
+     * process's exit or on stderr. Stderr reaches end-of-file on the same reactor, possibly the same loop, so
+     * the exit status is reported on a separate thread once the stderr registration has ended.
+     */
+    private void finishReadingAsync(boolean endOfOutput) {
+        Exception failure = readFailure;
+        CompletableFuture<Process> exited = process.onExit();
+        if (failure != null) {
+            exited = exited.completeOnTimeout(
+                    process, EXIT_AFTER_READ_FAILURE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        exited.thenCompose(ignored -> stderrDrained())
+                .thenRunAsync(() -> {
+                    if (failure != null) {
+                        reportFailedRead(failure);
+                    } else {
+                        finishReading(endOfOutput);
+                    }
+                }, exitExecutor());
+    }
+
+    private CompletableFuture<Void> stderrDrained() {
+        if (stderrPump == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return stderrPump.completion()
+                .completeOnTimeout(null, STDERR_DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns an executor that reports the exit status on a new thread of the configured mode.
+     */
+    private Executor exitExecutor() {
+        ThreadFactory factory = ThreadSupport.threadFactory("claude-cli-exit", options.getThreadMode());
+        return task -> factory.newThread(task).start();
+    }
+
+    /**
+     * Reports a failed read as the {@link ProcessError} of a CLI that has exited with an error, with the read
+     * failure suppressed, and as a {@link CLIConnectionError} otherwise.
+     */
+    private void reportFailedRead(Exception failure) {
+        if (closed.get() || handler == null) {
+            return;
+        }
+        if (process != null && !process.isAlive() && process.exitValue() != 0) {
+            try {
+                ProcessError error = processError(process.exitValue());
+                error.addSuppressed(failure);
+                exitError = error;
+                handler.onError(error);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        } finally {
-            checkExitCode();
+        }
+        handler.onError(new CLIConnectionError("Failed to read from CLI", failure));
+    }
+
+    private void dispatchFrame(JsonFrame frame) {
+        if (handler != null) {
+            handler.onFrame(frame);
         }
     }
 
-    private void checkExitCode() {
+    /**
+     * Waits for the process to exit and reports a non-zero exit code. Returns whether an error was reported.
+     */
+    private boolean checkExitCode() {
         if (process == null) {
-            return;
+            return false;
         }
         try {
             int exitCode = process.waitFor();
             if (exitCode != 0) {
-                String stderr = readStream(process.getErrorStream());
-                exitError = new ProcessError(
-                        String.format(Locale.ROOT, "Command failed with exit code %d", exitCode), exitCode, stderr);
+                exitError = processError(exitCode);
                 if (handler != null) {
                     handler.onError(exitError);
                 }
+                return true;
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        return false;
     }
 
-    private String readStream(InputStream stream) {
-        if (stream == null) {
+    private ProcessError processError(int exitCode) throws InterruptedException {
+        return new ProcessError(
+                String.format(Locale.ROOT, "Command failed with exit code %d", exitCode), exitCode, stderrTail());
+    }
+
+    private String stderrTail() throws InterruptedException {
+        if (stderrPump == null) {
             return "";
         }
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append(System.lineSeparator());
-            }
-            return sb.toString();
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Failed to read stderr", e);
-            return "";
+        // The process has exited, so stderr reaches end-of-file as soon as the pump has drained the pipe.
+        if (!stderrPump.awaitCompletion(STDERR_DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+            LOGGER.fine("Timed out waiting for CLI stderr to drain");
         }
+        return stderrPump.tail();
     }
 
     @Override
@@ -382,11 +588,17 @@ public class SubprocessCLITransport implements Transport {
         if (readerTask != null) {
             readerTask.cancel(true);
         }
+        if (stdoutRegistration != null) {
+            stdoutRegistration.cancel();
+        }
+        if (stderrRegistration != null) {
+            stderrRegistration.cancel();
+        }
+        synchronized (readGate) {
+            readGate.notifyAll();
+        }
         if (stdin != null) {
-            try {
-                stdin.close();
-            } catch (IOException ignored) {
-            }
+            stdin.close();
         }
         if (stdout != null) {
             try {
@@ -402,9 +614,79 @@ public class SubprocessCLITransport implements Transport {
                 Thread.currentThread().interrupt();
             }
         }
-        executor.shutdownNow();
+        if (readerExecutor != null) {
+            readerExecutor.shutdownNow();
+        }
         if (exitError != null) {
             throw exitError;
         }
     }
+
+    /**
+     * Feeds stdout chunks from an {@link IoReactor} event loop into the framer.
+     */
+    private final class StdoutHandler implements IoReactor.ChunkHandler {
+        private final JsonMessageFramer framer;
+        private final JsonMessageFramer.FrameListener listener = SubprocessCLITransport.this::dispatchFrame;
+
+        StdoutHandler(JsonMessageFramer framer) {
+            this.framer = framer;
+        }
+
+        @Override
+        public void onData(byte[] data, int length) throws IOException, ClaudeSDKException {
+            framer.feed(data, 0, length, listener);
+        }
+
+        @Override
+        public void onEnd() {
+            if (framer.hasPartialMessage()) {
+                LOGGER.fine("Discarding incomplete JSON message at end of CLI output");
+            }
+            closeFramer();
+            finishReadingAsync(true);
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            closeFramer();
+            reportReadFailure(error);
+            finishReadingAsync(false);
+        }
+
+        private void closeFramer() {
+            try {
+                framer.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close JSON framer", e);
+            }
+        }
+    }
+
+    /**
+     * Feeds stderr chunks from an {@link IoReactor} event loop into the stderr pump.
+     */
+    private static final class StderrHandler implements IoReactor.ChunkHandler {
+        private final StderrPump pump;
+
+        StderrHandler(StderrPump pump) {
+            this.pump = pump;
+        }
+
+        @Override
+        public void onData(byte[] data, int length) {
+            pump.accept(data, length);
+        }
+
+        @Override
+        public void onEnd() {
+            pump.finish();
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            LOGGER.log(Level.FINE, "Stopped reading CLI stderr", error);
+            pump.finish();
+        }
+    }
 }
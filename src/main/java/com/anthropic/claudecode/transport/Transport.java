@@ -1,9 +1,14 @@
 package com.anthropic.claudecode.transport;
 
 import com.anthropic.claudecode.exceptions.CLIConnectionError;
+import com.anthropic.claudecode.exceptions.CLIJSONDecodeError;
 import com.anthropic.claudecode.exceptions.ClaudeSDKException;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Abstraction over the underlying mechanism used to communicate with Claude Code.
@@ -13,18 +18,75 @@ public interface Transport extends AutoCloseable {
 
     void write(String data) throws ClaudeSDKException;
 
+    /**
+     * Writes {@code message} as one line of JSON. Transports that own a byte stream serialize it straight into
+     * the stream, possibly after this method returns, so the message must not be modified afterwards. The
+     * default encodes it to a string for {@link #write(String)}.
+     */
+    default void writeMessage(Object message) throws ClaudeSDKException {
+        write(JsonLines.encode(message));
+    }
+
+    /**
+     * Writes {@code message} like {@link #writeMessage(Object)} and returns a future that fails if it cannot be
+     * encoded or written. Transports that serialize after returning complete the future once the message has
+     * been encoded, so that a message that cannot be encoded is reported to the caller rather than dropped.
+     */
+    default CompletableFuture<Void> writeMessageAsync(Object message) {
+        try {
+            writeMessage(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (ClaudeSDKException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of {@code json}, one UTF-8 encoded JSON message without a trailing newline,
+     * followed by a newline. The buffer's position is not changed, but its contents must not be modified
+     * afterwards.
+     */
+    default void write(ByteBuffer json) throws ClaudeSDKException {
+        write(StandardCharsets.UTF_8.decode(json.duplicate()) + "\n");
+    }
+
     void endInput() throws ClaudeSDKException;
 
     boolean isReady();
 
     void readMessages(MessageHandler handler);
 
+    /**
+     * Stops reading further output until {@link #resumeReading()} is called, so that a slow consumer pushes
+     * back on the CLI instead of buffering without bound. Messages already read are still delivered.
+     */
+    default void pauseReading() {
+    }
+
+    default void resumeReading() {
+    }
+
     @Override
     void close() throws ClaudeSDKException;
 
     interface MessageHandler {
         void onMessage(Map<String, Object> message);
 
+        /**
+         * Receives a message in tokenized form. Handlers that deserialize into their own types should
+         * override this; the default materializes the frame and delegates to {@link #onMessage(Map)}.
+         */
+        default void onFrame(JsonFrame frame) {
+            Map<String, Object> message;
+            try {
+                message = frame.toMap();
+            } catch (IOException e) {
+                onError(new CLIJSONDecodeError("Failed to decode JSON message from CLI", e));
+                return;
+            }
+            onMessage(message);
+        }
+
         void onError(Throwable error);
 
         void onClosed();
@@ -0,0 +1,18 @@
+package com.anthropic.claudecode.internal;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual thread factories. Java 21 variant of the multi-release jar.
+ */
+final class VirtualThreads {
+    private VirtualThreads() {}
+
+    static boolean isSupported() {
+        return true;
+    }
+
+    static ThreadFactory factory(String name) {
+        return Thread.ofVirtual().name(name).factory();
+    }
+}
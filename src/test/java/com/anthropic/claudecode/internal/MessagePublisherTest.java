@@ -0,0 +1,198 @@
+package com.anthropic.claudecode.internal;
+
+import com.anthropic.claudecode.MessageDispatcher;
+import com.anthropic.claudecode.OverflowStrategy;
+import com.anthropic.claudecode.messages.SystemMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessagePublisherTest {
+    private int pauses;
+    private int resumes;
+    private int spoolDrains;
+
+    private final MessagePublisher.Listener listener = new MessagePublisher.Listener() {
+        @Override
+        public void onPause() {
+            pauses++;
+        }
+
+        @Override
+        public void onResume() {
+            resumes++;
+        }
+
+        @Override
+        public void onSpoolDrained() {
+            spoolDrains++;
+        }
+    };
+
+    @Test
+    void blockPausesAtCapacityAndResumesAtHalf() {
+        MessagePublisher publisher = newPublisher(4, OverflowStrategy.BLOCK);
+        for (int seq = 0; seq < 3; seq++) {
+            publisher.submit(TestFrame.systemMessage(seq));
+        }
+        assertEquals(0, pauses);
+
+        publisher.submit(TestFrame.systemMessage(3));
+        assertEquals(1, pauses);
+        assertTrue(publisher.isPaused());
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.request(1);
+        assertEquals(0, resumes);
+        assertTrue(publisher.isPaused());
+
+        subscriber.request(1);
+        assertEquals(1, resumes);
+        assertFalse(publisher.isPaused());
+        assertEquals(List.of(0, 1), subscriber.sequence());
+
+        // Refilling the buffer pauses the producer once more, not once per message.
+        publisher.submit(TestFrame.systemMessage(4));
+        publisher.submit(TestFrame.systemMessage(5));
+        publisher.submit(TestFrame.systemMessage(6));
+        assertEquals(2, pauses);
+    }
+
+    @Test
+    void deliversSpooledFramesInOrderWithBufferedMessages() throws Exception {
+        MessagePublisher publisher = newPublisher(2, OverflowStrategy.SPILL_TO_DISK);
+        for (int seq = 0; seq < 6; seq++) {
+            if (publisher.shouldSpool(false)) {
+                publisher.submitSpooled(TestFrame.system(seq));
+            } else {
+                publisher.submit(TestFrame.systemMessage(seq));
+            }
+        }
+        assertEquals(6, publisher.getBufferedCount());
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.request(3);
+        assertEquals(List.of(0, 1, 2), subscriber.sequence());
+        // Once one frame is spooled the following ones are too, even with room in the buffer again.
+        assertTrue(publisher.shouldSpool(false));
+        assertEquals(0, spoolDrains);
+
+        subscriber.request(Long.MAX_VALUE);
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), subscriber.sequence());
+        assertEquals(1, spoolDrains);
+        assertFalse(publisher.shouldSpool(false));
+    }
+
+    @Test
+    void waitsForEverySubscriberToRequest() {
+        MessagePublisher publisher = newPublisher(4, OverflowStrategy.BLOCK);
+        RecordingSubscriber fast = new RecordingSubscriber();
+        RecordingSubscriber slow = new RecordingSubscriber();
+        publisher.subscribe(fast);
+        publisher.subscribe(slow);
+        fast.request(Long.MAX_VALUE);
+        publisher.submit(TestFrame.systemMessage(0));
+        assertTrue(fast.received.isEmpty());
+
+        slow.request(1);
+        assertEquals(List.of(0), fast.sequence());
+        assertEquals(List.of(0), slow.sequence());
+
+        slow.subscription.cancel();
+        publisher.submit(TestFrame.systemMessage(1));
+        assertEquals(List.of(0, 1), fast.sequence());
+    }
+
+    @Test
+    void resetRetiresSubscribersAndServesNewOnes() {
+        MessagePublisher publisher = newPublisher(2, OverflowStrategy.BLOCK);
+        RecordingSubscriber first = new RecordingSubscriber();
+        publisher.subscribe(first);
+        first.request(1);
+        publisher.submit(TestFrame.systemMessage(0));
+        assertTrue(publisher.reset());
+        assertTrue(first.completed);
+
+        publisher.submit(TestFrame.systemMessage(1));
+        publisher.submit(TestFrame.systemMessage(2));
+        assertTrue(publisher.isPaused());
+        // Discarding a full buffer releases the paused producer.
+        assertFalse(publisher.reset());
+        assertEquals(1, resumes);
+        assertFalse(publisher.isPaused());
+
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(second);
+        second.request(Long.MAX_VALUE);
+        publisher.submit(TestFrame.systemMessage(3));
+        publisher.close();
+        assertEquals(List.of(0), first.sequence());
+        assertEquals(List.of(3), second.sequence());
+        assertTrue(second.completed);
+    }
+
+    @Test
+    void deliversAcceptedMessagesBeforeCompleting() {
+        MessagePublisher publisher = newPublisher(4, OverflowStrategy.BLOCK);
+        publisher.submit(TestFrame.systemMessage(0));
+        publisher.close();
+        publisher.submit(TestFrame.systemMessage(1));
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertFalse(subscriber.completed);
+        subscriber.request(1);
+        assertEquals(List.of(0), subscriber.sequence());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    void terminatesSubscribersWithoutHoldingItsLock() {
+        MessagePublisher completing = newPublisher(4, OverflowStrategy.BLOCK);
+        MessagePublisher failing = newPublisher(4, OverflowStrategy.BLOCK);
+        List<Boolean> locked = new ArrayList<>();
+        completing.subscribe(new RecordingSubscriber() {
+            @Override
+            public void onComplete() {
+                locked.add(Thread.holdsLock(completing));
+            }
+        });
+        failing.subscribe(new RecordingSubscriber() {
+            @Override
+            public void onError(Throwable throwable) {
+                locked.add(Thread.holdsLock(failing));
+            }
+        });
+
+        completing.close();
+        failing.closeExceptionally(new IllegalStateException("CLI failed"));
+
+        assertEquals(List.of(false, false), locked);
+    }
+
+    private MessagePublisher newPublisher(int capacity, OverflowStrategy strategy) {
+        return new MessagePublisher(
+                capacity,
+                strategy,
+                MessageDispatcher.sameThread(),
+                null,
+                frame -> {
+                    try {
+                        Map<String, Object> data = frame.toMap();
+                        return new SystemMessage((String) data.get("subtype"), data);
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                },
+                listener);
+    }
+}
@@ -0,0 +1,211 @@
+package com.anthropic.claudecode.internal;
+
+import com.anthropic.claudecode.ClaudeCodeOptions;
+import com.anthropic.claudecode.MessageDispatcher;
+import com.anthropic.claudecode.OverflowStrategy;
+import com.anthropic.claudecode.transport.Transport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryTest {
+    private static final int CAPACITY = 4;
+
+    @TempDir
+    Path spillDirectory;
+
+    private FakeTransport transport;
+    private Query query;
+
+    @BeforeEach
+    void startQuery() {
+        transport = new FakeTransport();
+        ClaudeCodeOptions options = new ClaudeCodeOptions()
+                .setMessageBufferSize(CAPACITY)
+                .setOverflowStrategy(OverflowStrategy.BLOCK)
+                .setMessageDispatcher(MessageDispatcher.sameThread())
+                .setControlExecutor(Runnable::run)
+                .setSpillDirectory(spillDirectory);
+        query = new Query(transport, true, options);
+        query.start();
+    }
+
+    @AfterEach
+    void closeQuery() throws Exception {
+        query.close();
+    }
+
+    @Test
+    void blockPausesReadingAtCapacityAndResumesAtHalf() throws Exception {
+        for (int seq = 0; seq < CAPACITY - 1; seq++) {
+            transport.emit(TestFrame.system(seq));
+        }
+        assertFalse(transport.paused);
+
+        transport.emit(TestFrame.system(CAPACITY - 1));
+        assertTrue(transport.paused);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        query.getPublisher().subscribe(subscriber);
+        subscriber.request(1);
+        assertTrue(transport.paused);
+
+        subscriber.request(1);
+        assertFalse(transport.paused);
+        assertEquals(List.of(0, 1), subscriber.sequence());
+        assertEquals(1, transport.pauses);
+    }
+
+    @Test
+    void controlResponseBypassesFullBuffer() throws Exception {
+        fillBuffer();
+        assertTrue(transport.paused);
+
+        CompletableFuture<Map<String, Object>> response = query.sendControlRequestAsync(Map.of("subtype", "interrupt"));
+        // Reading resumes while the response is awaited, although nobody consumes the buffered messages.
+        assertFalse(transport.paused);
+
+        transport.emit(controlResponse(transport.lastRequestId(), "{\"ok\":true}"));
+        assertTrue(response.isDone());
+        assertEquals(Map.of("ok", true), response.get());
+        assertTrue(transport.paused);
+        assertEquals(CAPACITY, query.getBufferedMessageCount());
+    }
+
+    @Test
+    void messagesReadForControlResponsesAreSpooledInOrder() throws Exception {
+        fillBuffer();
+        CompletableFuture<Map<String, Object>> response = query.sendControlRequestAsync(Map.of("subtype", "interrupt"));
+        for (int seq = CAPACITY; seq < CAPACITY + 3; seq++) {
+            transport.emit(TestFrame.system(seq));
+        }
+        transport.emit(controlResponse(transport.lastRequestId(), "{}"));
+        assertTrue(response.isDone());
+        assertEquals(CAPACITY + 3, query.getBufferedMessageCount());
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        query.getPublisher().subscribe(subscriber);
+        subscriber.request(Long.MAX_VALUE);
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), subscriber.sequence());
+        assertFalse(transport.paused);
+    }
+
+    @Test
+    void answersRejectedControlRequestOffTheReadingThread() throws Exception {
+        CompletableFuture<Thread> writer = new CompletableFuture<>();
+        CompletableFuture<Object> answer = new CompletableFuture<>();
+        FakeTransport rejecting = new FakeTransport() {
+            @Override
+            public void writeMessage(Object message) {
+                writer.complete(Thread.currentThread());
+                answer.complete(message);
+            }
+        };
+        ClaudeCodeOptions options = new ClaudeCodeOptions()
+                .setMessageDispatcher(MessageDispatcher.sameThread())
+                .setControlExecutor(command -> {
+                    throw new RejectedExecutionException("saturated");
+                });
+        try (Query saturated = new Query(rejecting, true, options)) {
+            saturated.start();
+            rejecting.emit(new TestFrame("{\"type\":\"control_request\",\"request_id\":\"cli_1\","
+                    + "\"request\":{\"subtype\":\"can_use_tool\",\"tool_name\":\"Bash\",\"input\":{}}}"));
+
+            assertNotSame(Thread.currentThread(), writer.get(5, TimeUnit.SECONDS));
+            @SuppressWarnings("unchecked")
+            Map<String, Object> response = (Map<String, Object>) ((Map<String, Object>) answer.get()).get("response");
+            assertEquals("error", response.get("subtype"));
+            assertEquals("cli_1", response.get("request_id"));
+        }
+    }
+
+    private void fillBuffer() throws IOException {
+        for (int seq = 0; seq < CAPACITY; seq++) {
+            transport.emit(TestFrame.system(seq));
+        }
+    }
+
+    private static TestFrame controlResponse(String requestId, String payload) throws IOException {
+        return new TestFrame("{\"type\":\"control_response\",\"response\":{\"subtype\":\"success\","
+                + "\"request_id\":\"" + requestId + "\",\"response\":" + payload + "}}");
+    }
+
+    /**
+     * Transport that records what the query writes and whether it asked for reading to pause.
+     */
+    private static class FakeTransport implements Transport {
+        private final List<Object> written = new ArrayList<>();
+        private MessageHandler handler;
+        private boolean paused;
+        private int pauses;
+
+        void emit(TestFrame frame) {
+            handler.onFrame(frame);
+        }
+
+        @SuppressWarnings("unchecked")
+        String lastRequestId() {
+            Map<String, Object> envelope = (Map<String, Object>) written.get(written.size() - 1);
+            return (String) envelope.get("request_id");
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void write(String data) {
+            written.add(data);
+        }
+
+        @Override
+        public void writeMessage(Object message) {
+            written.add(message);
+        }
+
+        @Override
+        public void endInput() {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void readMessages(MessageHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void pauseReading() {
+            paused = true;
+            pauses++;
+        }
+
+        @Override
+        public void resumeReading() {
+            paused = false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
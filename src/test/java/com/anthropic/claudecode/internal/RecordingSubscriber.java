@@ -0,0 +1,53 @@
+package com.anthropic.claudecode.internal;
+
+import com.anthropic.claudecode.messages.Message;
+import com.anthropic.claudecode.messages.SystemMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Subscriber that requests nothing by itself and records what it receives, for same-thread delivery.
+ */
+class RecordingSubscriber implements Flow.Subscriber<Message> {
+    final List<Message> received = new ArrayList<>();
+    Flow.Subscription subscription;
+    boolean completed;
+    Throwable error;
+
+    void request(long n) {
+        subscription.request(n);
+    }
+
+    /**
+     * Returns the {@code seq} field of each received system message.
+     */
+    List<Object> sequence() {
+        List<Object> result = new ArrayList<>();
+        for (Message message : received) {
+            result.add(((SystemMessage) message).getData().get("seq"));
+        }
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(Message item) {
+        received.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+        completed = true;
+    }
+}
@@ -0,0 +1,64 @@
+package com.anthropic.claudecode.internal;
+
+import com.anthropic.claudecode.JsonCodec;
+import com.anthropic.claudecode.messages.Message;
+import com.anthropic.claudecode.messages.SystemMessage;
+import com.anthropic.claudecode.transport.JsonFrame;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * In-memory {@link JsonFrame} over a JSON string.
+ */
+final class TestFrame implements JsonFrame {
+    private static final JsonCodec CODEC = JsonCodec.shared();
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final String json;
+    private final String type;
+
+    TestFrame(String json) throws IOException {
+        this.json = json;
+        this.type = (String) CODEC.getMapper().readValue(json, MAP_TYPE).get("type");
+    }
+
+    /**
+     * Returns a frame for a system message carrying {@code seq}.
+     */
+    static TestFrame system(int seq) throws IOException {
+        return new TestFrame("{\"type\":\"system\",\"subtype\":\"status\",\"seq\":" + seq + "}");
+    }
+
+    /**
+     * Returns the system message that {@link #system(int)} describes.
+     */
+    static Message systemMessage(int seq) {
+        return new SystemMessage("status", Map.of("type", "system", "subtype", "status", "seq", seq));
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public long getSize() {
+        return json.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Override
+    public JsonParser open() throws IOException {
+        JsonParser parser = CODEC.getFactory().createParser(json);
+        parser.setCodec(CODEC);
+        return parser;
+    }
+
+    @Override
+    public Map<String, Object> toMap() throws IOException {
+        return CODEC.getMapper().readValue(json, MAP_TYPE);
+    }
+}
@@ -0,0 +1,190 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.JsonCodec;
+import com.anthropic.claudecode.OversizedMessagePolicy;
+import com.anthropic.claudecode.exceptions.CLIJSONDecodeError;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonMessageFramerTest {
+    private static final JsonCodec CODEC = JsonCodec.shared();
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    // Strings with escapes and structural characters, numbers, literals and whitespace around separators, so
+    // that cutting the stream anywhere lands inside each kind of token and right after each kind of separator.
+    private static final List<String> MESSAGES = List.of(
+            "{\"type\":\"assistant\",\"message\":{\"content\":[{\"type\":\"text\","
+                    + "\"text\":\"say \\\"hi\\\" \\\\ \\u00e9\\n{end}\"}],"
+                    + "\"usage\":{\"input\":12345,\"ratio\":-1.25e-3}},\"ok\":true,\"none\":null}",
+            "{ \"type\" : \"user\" , \"list\" : [ 1 , [ ] , { } , \"]}\" , false ] , \"tail\" : \"\\\\\" }",
+            "{\"type\":\"result\",\"total\":9007199254740993,\"nested\":[[{\"a\":[]}]]}");
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void framesMessagesInOneChunk() throws Exception {
+        List<JsonFrame> frames = frame(Integer.MAX_VALUE, new int[0]);
+
+        assertFrames(frames, -1);
+        assertEquals("assistant", frames.get(0).getType());
+        assertEquals("user", frames.get(1).getType());
+        assertEquals("result", frames.get(2).getType());
+    }
+
+    @Test
+    void spillsMessageCutAtEveryOffset() throws Exception {
+        String stream = stream();
+        int start = 0;
+        for (int index = 0; index < MESSAGES.size(); index++) {
+            int length = bytes(MESSAGES.get(index)).length;
+            for (int offset = 1; offset < length; offset++) {
+                // The first chunk ends inside the message and exceeds the buffer there, so spilling starts at the
+                // cut, with the rest of the message and the start of the next one in the same chunk.
+                List<JsonFrame> frames = frame(offset - 1, new int[] {start + offset});
+                try {
+                    assertFrames(frames, index);
+                } catch (AssertionError e) {
+                    throw new AssertionError("Message " + index + " cut at " + offset + " of " + stream, e);
+                }
+            }
+            start += length + 1;
+        }
+    }
+
+    @Test
+    void spillsMessagesFedOneByteAtATime() throws Exception {
+        byte[] bytes = bytes(stream());
+        int[] cuts = new int[bytes.length - 1];
+        for (int i = 0; i < cuts.length; i++) {
+            cuts[i] = i + 1;
+        }
+        int longest = MESSAGES.stream().mapToInt(message -> bytes(message).length).max().orElseThrow();
+        for (int maxBufferSize = 0; maxBufferSize < longest; maxBufferSize++) {
+            List<JsonFrame> frames = frame(maxBufferSize, cuts);
+            assertEquals(MESSAGES.size(), frames.size());
+            for (int i = 0; i < MESSAGES.size(); i++) {
+                assertEquals(parse(MESSAGES.get(i)), frames.get(i).toMap(), "maxBufferSize " + maxBufferSize);
+                // A message spills once more than maxBufferSize of it has been fed while it is still open.
+                boolean spilled = bytes(MESSAGES.get(i)).length > maxBufferSize + 1;
+                assertEquals(spilled, frames.get(i).isSpilled(), "maxBufferSize " + maxBufferSize);
+            }
+        }
+    }
+
+    @Test
+    void deletesSpillFileOfUnfinishedMessageOnClose() throws Exception {
+        byte[] bytes = bytes(MESSAGES.get(0));
+        JsonMessageFramer framer = newFramer(8, OversizedMessagePolicy.SPILL_TO_DISK);
+        framer.feed(bytes, 0, bytes.length / 2, frame -> {
+            throw new AssertionError("Unexpected frame");
+        });
+        assertTrue(framer.hasPartialMessage());
+        assertEquals(1, spillFileCount());
+
+        framer.close();
+
+        assertFalse(framer.hasPartialMessage());
+        assertEquals(0, spillFileCount());
+    }
+
+    @Test
+    void failsOversizedMessageUnderFailPolicy() throws Exception {
+        byte[] bytes = bytes(MESSAGES.get(0));
+        try (JsonMessageFramer framer = newFramer(8, OversizedMessagePolicy.FAIL)) {
+            assertThrows(CLIJSONDecodeError.class, () -> framer.feed(bytes, 0, bytes.length / 2, frame -> {
+            }));
+            assertFalse(framer.hasPartialMessage());
+        }
+    }
+
+    @Test
+    void liftsOnlyTheStringLengthLimit() {
+        JsonFactory factory = JsonFactory.builder()
+                .streamReadConstraints(StreamReadConstraints.builder()
+                        .maxDocumentLength(1_000_000)
+                        .maxNameLength(64)
+                        .maxNestingDepth(16)
+                        .maxStringLength(1024)
+                        .build())
+                .build();
+
+        StreamReadConstraints constraints = JsonMessageFramer.withoutStringLimit(factory).streamReadConstraints();
+
+        assertEquals(Integer.MAX_VALUE, constraints.getMaxStringLength());
+        assertEquals(1_000_000, constraints.getMaxDocumentLength());
+        assertEquals(64, constraints.getMaxNameLength());
+        assertEquals(16, constraints.getMaxNestingDepth());
+        assertEquals(1024, factory.streamReadConstraints().getMaxStringLength());
+    }
+
+    /**
+     * Feeds the newline-separated messages in chunks that end at {@code cuts}, and returns the frames.
+     */
+    private List<JsonFrame> frame(int maxBufferSize, int[] cuts) throws Exception {
+        byte[] bytes = bytes(stream());
+        List<JsonFrame> frames = new ArrayList<>();
+        try (JsonMessageFramer framer = newFramer(maxBufferSize, OversizedMessagePolicy.SPILL_TO_DISK)) {
+            int from = 0;
+            for (int cut : cuts) {
+                framer.feed(bytes, from, cut - from, frames::add);
+                from = cut;
+            }
+            framer.feed(bytes, from, bytes.length - from, frames::add);
+            assertFalse(framer.hasPartialMessage());
+        }
+        return frames;
+    }
+
+    /**
+     * Checks that the frames match a direct parse of the messages, with their sizes, and that only
+     * {@code spilledIndex} spilled.
+     */
+    private static void assertFrames(List<JsonFrame> frames, int spilledIndex) throws IOException {
+        assertEquals(MESSAGES.size(), frames.size());
+        for (int i = 0; i < MESSAGES.size(); i++) {
+            assertEquals(parse(MESSAGES.get(i)), frames.get(i).toMap());
+            assertEquals(i == spilledIndex, frames.get(i).isSpilled());
+            assertEquals(bytes(MESSAGES.get(i)).length, frames.get(i).getSize());
+        }
+    }
+
+    private JsonMessageFramer newFramer(int maxBufferSize, OversizedMessagePolicy policy) throws IOException {
+        return new JsonMessageFramer(CODEC, maxBufferSize, policy, spillDirectory);
+    }
+
+    private long spillFileCount() throws IOException {
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            return files.count();
+        }
+    }
+
+    private static Map<String, Object> parse(String message) throws IOException {
+        return CODEC.getMapper().readValue(message, MAP_TYPE);
+    }
+
+    private static String stream() {
+        return String.join("\n", MESSAGES) + "\n";
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,97 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.CanUseTool;
+import com.anthropic.claudecode.ClaudeCodeOptions;
+import com.anthropic.claudecode.PermissionResultAllow;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LaunchSpecTest {
+    private static final CanUseTool ALLOW = (toolName, input, context) ->
+            CompletableFuture.completedFuture(new PermissionResultAllow());
+
+    @Test
+    void equallyConfiguredOptionsHaveEqualSpecs() throws Exception {
+        LaunchSpec first = options().toLaunchSpec();
+        LaunchSpec second = options().toLaunchSpec();
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    void specsDifferWhenTheProcessWouldDiffer() throws Exception {
+        LaunchSpec spec = options().toLaunchSpec();
+
+        assertDiffers(spec, options -> options.setModel("claude-opus-4"));
+        assertDiffers(spec, options -> options.setAllowedTools(List.of("Read")));
+        assertDiffers(spec, options -> options.setEnv(Map.of("API_REGION", "eu")));
+        assertDiffers(spec, options -> options.setCwd(Path.of("/srv/other")));
+        assertDiffers(spec, options -> options.setExtraArgs(Map.of("debug", "")));
+        assertDiffers(spec, options -> options.setMcpServers(Map.of("files", Map.of("command", "files-server"))));
+    }
+
+    @Test
+    void specsDifferWhenTheSessionWouldRunDifferently() throws Exception {
+        LaunchSpec spec = options().toLaunchSpec();
+
+        assertDiffers(spec, options -> options.setMessageBufferSize(8));
+        // Callbacks compare by identity, so an equivalent but distinct callback is another configuration.
+        assertDiffers(spec, options -> options.setCanUseTool((toolName, input, context) ->
+                CompletableFuture.completedFuture(new PermissionResultAllow())));
+    }
+
+    @Test
+    void specIsNotAffectedByLaterChanges() throws Exception {
+        ClaudeCodeOptions options = options();
+        LaunchSpec before = options.toLaunchSpec();
+
+        options.setModel("claude-opus-4");
+
+        assertEquals(options().toLaunchSpec(), before);
+        assertNotEquals(before, options.toLaunchSpec());
+        assertFalse(before.getArguments().contains("claude-opus-4"));
+    }
+
+    @Test
+    void frozenOptionsComputeTheirSpecOnce() throws Exception {
+        ClaudeCodeOptions frozen = options().freeze();
+
+        assertSame(frozen.toLaunchSpec(), frozen.toLaunchSpec());
+        assertEquals(frozen.toLaunchSpec(), frozen.copy().toLaunchSpec());
+    }
+
+    @Test
+    void describesEnvironmentWithoutValues() throws Exception {
+        String description = options().setEnv(Map.of("ANTHROPIC_API_KEY", "secret")).toLaunchSpec().toString();
+
+        assertTrue(description.contains("ANTHROPIC_API_KEY"));
+        assertFalse(description.contains("secret"));
+    }
+
+    private static void assertDiffers(LaunchSpec spec, Consumer<ClaudeCodeOptions> change) throws Exception {
+        ClaudeCodeOptions options = options();
+        change.accept(options);
+        assertNotEquals(spec, options.toLaunchSpec());
+    }
+
+    private static ClaudeCodeOptions options() {
+        return new ClaudeCodeOptions()
+                .setModel("claude-sonnet-4")
+                .setAllowedTools(List.of("Read", "Grep"))
+                .setEnv(Map.of("API_REGION", "us"))
+                .setCwd(Path.of("/srv/project"))
+                .setCanUseTool(ALLOW);
+    }
+}
@@ -0,0 +1,153 @@
+package com.anthropic.claudecode.transport;
+
+import com.anthropic.claudecode.JsonCodec;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StdinWriterTest {
+    private static final JsonCodec CODEC = JsonCodec.shared();
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+    private static final ThreadFactory DAEMONS = runnable -> {
+        Thread thread = new Thread(runnable, "stdin-writer-test");
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    @Test
+    void keepsEachProducersMessagesWholeAndInOrder() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StdinWriter writer = newWriter(out);
+        int producers = 8;
+        int messages = 500;
+        List<Thread> threads = new ArrayList<>();
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            CompletableFuture<Void> finished = new CompletableFuture<>();
+            done.add(finished);
+            threads.add(DAEMONS.newThread(() -> {
+                try {
+                    for (int n = 0; n < messages; n++) {
+                        if (n % 2 == 0) {
+                            writer.writeMessage(Map.of("producer", producer, "n", n));
+                        } else {
+                            writer.write(line("{\"producer\":" + producer + ",\"n\":" + n + "}"));
+                        }
+                    }
+                    finished.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    finished.completeExceptionally(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (CompletableFuture<Void> finished : done) {
+            finished.get(10, TimeUnit.SECONDS);
+        }
+        writer.end();
+
+        int[] next = new int[producers];
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(producers * messages, lines.length);
+        for (String line : lines) {
+            Map<String, Object> message = CODEC.getMapper().readValue(line, MAP_TYPE);
+            int producer = (Integer) message.get("producer");
+            assertEquals(next[producer]++, message.get("n"));
+        }
+    }
+
+    @Test
+    void writesEveryMessageWithoutWaitingForTheNext() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StdinWriter writer = newWriter(out);
+        StringBuilder expected = new StringBuilder();
+        // The writer goes idle between messages, so each one has to wake it.
+        for (int n = 0; n < 200; n++) {
+            String text = "{\"n\":" + n + "}\n";
+            expected.append(text);
+            writer.write(text.getBytes(StandardCharsets.UTF_8));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!out.toString(StandardCharsets.UTF_8).contentEquals(expected)) {
+                assertTrue(System.nanoTime() < deadline, "Message " + n + " was not written");
+                Thread.onSpinWait();
+            }
+        }
+        writer.end();
+    }
+
+    @Test
+    void closeReleasesProducersWaitingForRoom() throws Exception {
+        CountDownLatch pipeDrained = new CountDownLatch(1);
+        OutputStream fullPipe = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                try {
+                    pipeDrained.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        StdinWriter writer = newWriter(fullPipe);
+        CompletableFuture<Void> producerResult = new CompletableFuture<>();
+        Thread producer = DAEMONS.newThread(() -> {
+            try {
+                while (true) {
+                    writer.write(line("{}"));
+                }
+            } catch (IOException e) {
+                producerResult.completeExceptionally(e);
+            }
+        });
+        try {
+            producer.start();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (producer.getState() != Thread.State.WAITING) {
+                assertTrue(System.nanoTime() < deadline, "Producer never waited for room in the queue");
+                Thread.onSpinWait();
+            }
+
+            writer.close();
+
+            ExecutionException failure =
+                    assertThrows(ExecutionException.class, () -> producerResult.get(5, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof IOException);
+            producer.join(TimeUnit.SECONDS.toMillis(5));
+            assertEquals(Thread.State.TERMINATED, producer.getState());
+        } finally {
+            pipeDrained.countDown();
+        }
+    }
+
+    private static StdinWriter newWriter(OutputStream out) {
+        return new StdinWriter(out, CODEC, Duration.ZERO, DAEMONS, failure -> {
+        });
+    }
+
+    private static byte[] line(String json) {
+        return (json + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}